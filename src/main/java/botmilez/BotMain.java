@@ -4,14 +4,10 @@ import commands.*;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.entities.Activity;
 import net.dv8tion.jda.api.JDA;
-import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.requests.GatewayIntent;
 
 import javax.security.auth.login.LoginException;
 
-import java.util.List;
-import java.util.Map;
-
 import static botmilez.config.BOTMILEZ_TOKEN;
 
 //TODO: rng-sentence command including Markov & Basic generator
@@ -25,18 +21,13 @@ public class BotMain {
         JDABuilder jdaBuilder = JDABuilder.createDefault(BOTMILEZ_TOKEN);
 
         CommandManager cmdManager = new CommandManager();
-        List<IBotCommand> commands = cmdManager.getCommands();
 
         /*
-         * Add event listeners, including the main command manager
-         * And commands that have their own listeners.
+         * Add event listeners: the main command manager for slash commands,
+         * and the component router which hands button, select menu and
+         * message events to the command that owns them.
          */
-        jdaBuilder = jdaBuilder.addEventListeners(cmdManager);
-        for (IBotCommand command : commands) {
-            if (command instanceof ListenerAdapter) {
-                jdaBuilder = jdaBuilder.addEventListeners(command);
-            }
-        }
+        jdaBuilder = jdaBuilder.addEventListeners(cmdManager, ComponentRouter.initialize());
 
         /* Build the JDA */
         JDA jda = jdaBuilder.setActivity(Activity.watching("Fresh Pillow"))
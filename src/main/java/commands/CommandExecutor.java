@@ -0,0 +1,97 @@
+package commands;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the invocations of one command away from the JDA event thread, so
+ * a command that blocks (reading files, fetching message history, etc.)
+ * does not hold up events for every other server.
+ *
+ * At most maxConcurrent invocations of the command run at once, and at
+ * most maxQueued more may wait for their turn. Anything past that is
+ * refused so the caller can tell the user to try again later, instead of
+ * letting a backlog pile up without limit.
+ */
+public class CommandExecutor {
+
+    /* Name of the command this executor runs */
+    private final String name;
+
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * @param name name of the command, used to name the threads
+     * @param maxConcurrent maximum number of invocations running at once
+     * @param maxQueued maximum number of invocations waiting to run
+     */
+    public CommandExecutor(String name, int maxConcurrent, int maxQueued) {
+        this.name = name;
+
+        pool = new ThreadPoolExecutor(
+                maxConcurrent, maxConcurrent,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxQueued),
+                new CommandThreadFactory(name),
+                new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+
+    /**
+     * Hands a task to this executor.
+     *
+     * @param task task to run
+     * @return true if the task will be run, false if too many are
+     *         already running or waiting.
+     */
+    public boolean submit(Runnable task) {
+        try {
+            pool.execute(() -> {
+                try {
+                    task.run();
+                }
+                catch (RuntimeException e) {
+                    System.out.println("Command " + name + " failed: " + e);
+                    e.printStackTrace();
+                }
+            });
+            return true;
+        }
+        catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * @return name of the command this executor runs
+     */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * Creates daemon threads named after the command they run.
+     */
+    private static class CommandThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        CommandThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "command-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -11,6 +11,7 @@ import commands.stat.MkwStatsCommand;
 import commands.trivia.TriviaCommand;
 import commands.trivia.triviaeditor.TriviaEditorCommand;
 import net.dv8tion.jda.api.events.guild.GuildReadyEvent;
+import net.dv8tion.jda.api.events.interaction.command.CommandAutoCompleteInteractionEvent;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.interactions.commands.build.OptionData;
@@ -18,7 +19,10 @@ import net.dv8tion.jda.api.requests.restaction.CommandCreateAction;
 
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class handles methods that deal with commands that a user
@@ -29,21 +33,70 @@ public class CommandManager extends ListenerAdapter {
 
     private static List<IBotCommand> commands;
 
+    /* Command name -> command. Built once after all commands are added, never modified */
+    private static Map<String, IBotCommand> commandTable;
+
+    /* Command name -> executor for commands that run off the gateway thread */
+    private static Map<String, CommandExecutor> executors;
+
+    /* How often the stats of every command are written to file */
+    private static final long METRICS_DUMP_SECONDS = 60;
+
     public CommandManager() {
         /* Initialize command instances */
         commands = new ArrayList<>();
+        executors = new HashMap<>();
 
         commands.add(new HiCommand());
         commands.add(new RngCommand());
         commands.add(new RngUsernameCommand());
         commands.add(new BubbleWrapCommand());
-        commands.add(new QuoteCommand());
+        addOffGateway(new QuoteCommand(), 2, 8);
         commands.add(new MkwStatsCommand());
         commands.add(new RngMkwCommand());
-        //commands.add(new RngMessageCommand());
+        //addOffGateway(new RngMessageCommand(), 2, 8);
         commands.add(new HelpCommand());
-        commands.add(new TriviaCommand());
+        addOffGateway(new TriviaCommand(), 4, 16);
         commands.add(new TriviaEditorCommand());
+
+        commands = Collections.unmodifiableList(commands);
+        commandTable = buildCommandTable(commands);
+        executors = Collections.unmodifiableMap(executors);
+
+        CommandMetrics.startDumping(METRICS_DUMP_SECONDS);
+    }
+
+
+    /**
+     * Adds a command whose invocations are run by its own executor instead of
+     * on the JDA event thread. Used for commands that block on files or REST calls.
+     * Their slash commands are deferred before being queued, so they must
+     * respond through event.getHook().
+     *
+     * @param command command to add
+     * @param maxConcurrent maximum number of invocations of the command running at once
+     * @param maxQueued maximum number of invocations waiting before new ones are refused
+     */
+    private static void addOffGateway(IBotCommand command, int maxConcurrent, int maxQueued) {
+        commands.add(command);
+        executors.put(command.getName(), new CommandExecutor(command.getName(), maxConcurrent, maxQueued));
+    }
+
+
+    /**
+     * Builds the lookup table used to dispatch slash commands by name.
+     *
+     * @param commandList all commands of the bot
+     * @return an unmodifiable map of command name -> command
+     */
+    private static Map<String, IBotCommand> buildCommandTable(List<IBotCommand> commandList) {
+        Map<String, IBotCommand> table = new HashMap<>();
+        for (IBotCommand command : commandList) {
+            if (table.put(command.getName(), command) != null) {
+                throw new IllegalStateException("Duplicate command name: " + command.getName());
+            }
+        }
+        return Collections.unmodifiableMap(table);
     }
 
     @Override
@@ -52,16 +105,37 @@ public class CommandManager extends ListenerAdapter {
         if (!event.getUser().isBot()) {
             super.onSlashCommandInteraction(event);
 
-            String cmdName = event.getName();
-            for (IBotCommand command : commands) {
-                if (cmdName.equals(command.getName())) {
-                    command.doAction(event);
-                }
+            IBotCommand command = commandTable.get(event.getName());
+            if (command == null) {
+                return;
+            }
+
+            /* Acknowledged now, since waiting in the executor can take longer
+             * than Discord gives an interaction to be answered */
+            if (executors.containsKey(command.getName())) {
+                event.deferReply().queue();
+            }
+
+            boolean accepted = submit(command.getName(),
+                    () -> CommandMetrics.track(command.getName(), () -> command.doAction(event)));
+            if (!accepted) {
+                CommandMetrics.recordRejected(command.getName());
+                event.getHook().sendMessage("I'm handling too many /" + command.getName() + " requests " +
+                                "right now. Please try again in a moment.")
+                        .queue();
             }
         }
 
     }
 
+    @Override
+    public void onCommandAutoCompleteInteraction(CommandAutoCompleteInteractionEvent event) {
+        IBotCommand command = commandTable.get(event.getName());
+        if (command instanceof ListenerAdapter) {
+            ((ListenerAdapter)command).onCommandAutoCompleteInteraction(event);
+        }
+    }
+
     @Override
     public void onGuildReady(GuildReadyEvent event) {
 
@@ -90,4 +164,29 @@ public class CommandManager extends ListenerAdapter {
         return commands;
     }
 
+    /**
+     * Runs a task on behalf of a command. If the command runs off the gateway
+     * thread, the task is handed to its executor, otherwise it is run right away.
+     *
+     * @param commandName name of the command the task belongs to
+     * @param task task to run
+     * @return false if the command's executor is full and the task was refused
+     */
+    public static boolean submit(String commandName, Runnable task) {
+        CommandExecutor executor = executors.get(commandName);
+        if (executor == null) {
+            task.run();
+            return true;
+        }
+        return executor.submit(task);
+    }
+
+    /**
+     * @param name name of the command
+     * @return the command with the given name, or null if there is none.
+     */
+    public static IBotCommand getCommand(String name) {
+        return commandTable.get(name);
+    }
+
 }
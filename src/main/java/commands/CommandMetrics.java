@@ -0,0 +1,167 @@
+package commands;
+
+import org.json.simple.JSONObject;
+import util.IO;
+import util.LatencyHistogram;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Keeps track of how often each command is run, how often it fails, how
+ * many invocations are running right now, and how long they take. Stats are
+ * kept per command name and are periodically written to a JSON file so they
+ * can be looked at while the bot is running.
+ */
+public class CommandMetrics {
+
+    public static final String METRICS_DIR = "resources/metrics/";
+    public static final String METRICS_FILE = METRICS_DIR + "command_metrics.json";
+
+    /* Command name -> stats of that command */
+    private static final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    /* Name -> other stats written along with the commands', e.g. of caches */
+    private static final Map<String, Supplier<JSONObject>> extraStats = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService dumper = null;
+
+
+    /**
+     * Runs a task on behalf of a command and records its duration, and
+     * whether it threw, under that command's name.
+     *
+     * @param commandName name of the command the task belongs to
+     * @param task task to run
+     */
+    public static void track(String commandName, Runnable task) {
+        Stats commandStats = statsOf(commandName);
+        commandStats.invocations.increment();
+        commandStats.inFlight.incrementAndGet();
+        long start = System.nanoTime();
+
+        try {
+            task.run();
+        }
+        catch (RuntimeException e) {
+            commandStats.errors.increment();
+            throw e;
+        }
+        finally {
+            commandStats.latency.record((System.nanoTime() - start) / 1000);
+            commandStats.inFlight.decrementAndGet();
+        }
+    }
+
+
+    /**
+     * Records that an invocation of a command was refused because its
+     * executor was full.
+     * @param commandName name of the command
+     */
+    public static void recordRejected(String commandName) {
+        statsOf(commandName).rejected.increment();
+    }
+
+
+    /**
+     * Adds stats to be written along with the stats of the commands.
+     *
+     * @param name name to write the stats under
+     * @param supplier gives the current stats each time they are written
+     */
+    public static void registerStats(String name, Supplier<JSONObject> supplier) {
+        extraStats.put(name, supplier);
+    }
+
+
+    /**
+     * Starts writing all stats to METRICS_FILE every given number of seconds.
+     * Calling this more than once does nothing.
+     *
+     * @param periodSeconds seconds between each write
+     */
+    public static synchronized void startDumping(long periodSeconds) {
+        if (dumper != null) {
+            return;
+        }
+
+        new File(METRICS_DIR).mkdirs();
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "command-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> {
+            try {
+                IO.writeJson(toJson(), METRICS_FILE);
+            }
+            catch (RuntimeException e) {
+                System.out.println("Failed to write command metrics: " + e.getLocalizedMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * @return the stats of every command that was run at least once under
+     *         "commands", as command name -> stats, and any other registered
+     *         stats under their name. Durations are in microseconds.
+     */
+    public static JSONObject toJson() {
+        JSONObject commands = new JSONObject();
+        for (Map.Entry<String, Stats> entry : new TreeMap<>(stats).entrySet()) {
+            commands.put(entry.getKey(), entry.getValue().toJson());
+        }
+
+        JSONObject json = new JSONObject();
+        json.put("commands", commands);
+        for (Map.Entry<String, Supplier<JSONObject>> entry : extraStats.entrySet()) {
+            json.put(entry.getKey(), entry.getValue().get());
+        }
+        return json;
+    }
+
+
+    private static Stats statsOf(String commandName) {
+        Stats commandStats = stats.get(commandName);
+        if (commandStats == null) {
+            commandStats = stats.computeIfAbsent(commandName, name -> new Stats());
+        }
+        return commandStats;
+    }
+
+
+    /**
+     * Stats of a single command
+     */
+    private static class Stats {
+        final LongAdder invocations = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("invocations", invocations.sum());
+            json.put("errors", errors.sum());
+            json.put("rejected", rejected.sum());
+            json.put("in_flight", inFlight.get());
+            json.put("mean_us", latency.getMean());
+            json.put("p50_us", latency.getPercentile(0.50));
+            json.put("p90_us", latency.getPercentile(0.90));
+            json.put("p99_us", latency.getPercentile(0.99));
+            json.put("max_us", latency.getPercentile(1.0));
+            return json;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package commands;
+
+import net.dv8tion.jda.api.events.interaction.component.ButtonInteractionEvent;
+import net.dv8tion.jda.api.events.interaction.component.StringSelectInteractionEvent;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static util.EmbedPageBuilder.*;
+
+/**
+ * A singleton listener that is the only one registered to the JDA for
+ * component and message events. Instead of every command receiving every
+ * button press, select menu choice, or message and comparing component ids,
+ * handlers register the ids they own here and the router hands each event
+ * straight to its owner.
+ *
+ * Component ids (buttons & select menus) are mapped to exactly one handler.
+ * Messages are handed to the handler that owns the channel they were sent in
+ * (e.g. an ongoing trivia game), plus the small set of handlers that follow
+ * a user through a multi-message process regardless of channel.
+ */
+public class ComponentRouter extends ListenerAdapter {
+
+    /* Single instance of this class to be created */
+    private static ComponentRouter routerInstance = null;
+
+    /* Component id -> handler that owns the component */
+    private final Map<String, ListenerAdapter> componentHandlers;
+
+    /* Channel id -> handler that owns messages sent in that channel */
+    private final Map<Long, ListenerAdapter> channelHandlers;
+
+    /* Handlers that receive every message, in the order they were registered */
+    private final List<ListenerAdapter> messageHandlers;
+
+    private ComponentRouter() {
+        componentHandlers = new ConcurrentHashMap<>();
+        channelHandlers = new ConcurrentHashMap<>();
+        messageHandlers = new CopyOnWriteArrayList<>();
+    }
+
+
+    public static synchronized ComponentRouter initialize() {
+        if (routerInstance == null) {
+            routerInstance = new ComponentRouter();
+        }
+        return routerInstance;
+    }
+
+
+    /**
+     * Routes all button and select menu events with the given component id
+     * to the given handler. Replaces any previous owner of the id.
+     *
+     * @param componentId id of the button or select menu
+     * @param handler handler of events for this component
+     */
+    public void register(String componentId, ListenerAdapter handler) {
+        componentHandlers.put(componentId, handler);
+    }
+
+
+    /**
+     * Routes the next page, previous page and delete buttons of an
+     * EmbedPageBuilder created with the given scroll id to the given handler.
+     *
+     * @param scrollId id given to the EmbedPageBuilder
+     * @param handler handler that scrolls the embed
+     */
+    public void registerPageBuilder(String scrollId, ListenerAdapter handler) {
+        register(BUTTON_NEXT_PAGE + scrollId, handler);
+        register(BUTTON_PREVIOUS_PAGE + scrollId, handler);
+        register(DELETE_EMBED + scrollId, handler);
+    }
+
+
+    /**
+     * Stops routing events of the given component id.
+     * @param componentId id of the button or select menu
+     */
+    public void unregister(String componentId) {
+        componentHandlers.remove(componentId);
+    }
+
+
+    /**
+     * Stops routing the buttons of an EmbedPageBuilder with the given scroll id.
+     * @param scrollId id given to the EmbedPageBuilder
+     */
+    public void unregisterPageBuilder(String scrollId) {
+        unregister(BUTTON_NEXT_PAGE + scrollId);
+        unregister(BUTTON_PREVIOUS_PAGE + scrollId);
+        unregister(DELETE_EMBED + scrollId);
+    }
+
+
+    /**
+     * Routes messages sent in the given channel to the given handler.
+     *
+     * @param channelId id of the channel
+     * @param handler handler that owns the channel
+     */
+    public void registerChannel(long channelId, ListenerAdapter handler) {
+        channelHandlers.put(channelId, handler);
+    }
+
+
+    /**
+     * Stops routing messages of the given channel, if it is still owned by
+     * the given handler.
+     *
+     * @param channelId id of the channel
+     * @param handler handler that owned the channel
+     */
+    public void unregisterChannel(long channelId, ListenerAdapter handler) {
+        channelHandlers.remove(channelId, handler);
+    }
+
+
+    /**
+     * Adds a handler that receives every message sent where the bot can see it.
+     * Kept for processes that follow a user across channels, so this should stay small.
+     *
+     * @param handler handler to add
+     */
+    public void registerMessageHandler(ListenerAdapter handler) {
+        if (!messageHandlers.contains(handler)) {
+            messageHandlers.add(handler);
+        }
+    }
+
+
+    @Override
+    public void onButtonInteraction(ButtonInteractionEvent event) {
+        ListenerAdapter handler = componentHandlers.get(event.getComponentId());
+        if (handler != null) {
+            handler.onButtonInteraction(event);
+        }
+    }
+
+    @Override
+    public void onStringSelectInteraction(StringSelectInteractionEvent event) {
+        ListenerAdapter handler = componentHandlers.get(event.getComponentId());
+        if (handler != null) {
+            handler.onStringSelectInteraction(event);
+        }
+    }
+
+    @Override
+    public void onMessageReceived(MessageReceivedEvent event) {
+        ListenerAdapter owner = channelHandlers.get(event.getChannel().getIdLong());
+        if (owner != null) {
+            owner.onMessageReceived(event);
+        }
+
+        for (ListenerAdapter handler : messageHandlers) {
+            handler.onMessageReceived(event);
+        }
+    }
+}
@@ -43,6 +43,8 @@ public interface IBotCommand {
 
     /**
      * Perform the action specified by the command and its arguments, if any.
+     * Commands run off the gateway thread are already deferred when this is
+     * called, and respond through event.getHook().
      *
      * @param event the event that triggered the slash command
      */
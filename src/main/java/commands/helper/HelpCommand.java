@@ -1,6 +1,7 @@
 package commands.helper;
 
 import commands.CommandManager;
+import commands.ComponentRouter;
 import commands.IBotCommand;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
@@ -17,6 +18,10 @@ import java.util.List;
 
 public class HelpCommand extends ListenerAdapter implements IBotCommand {
 
+    public HelpCommand() {
+        ComponentRouter.initialize().register(HELP_MENU, this);
+    }
+
     @Override
     public String getName() {
         return "help";
@@ -65,16 +70,10 @@ public class HelpCommand extends ListenerAdapter implements IBotCommand {
     @Override
     public void onStringSelectInteraction(StringSelectInteractionEvent event) {
         if (event.getComponentId().equals(HELP_MENU)) {
-            IBotCommand selectedCmd = null;
-
-            for (IBotCommand command : CommandManager.getCommands()) {
-                if (event.getValues().get(0).equals(command.getName())) {
-                    selectedCmd = command;
-                    break;
-                }
+            IBotCommand selectedCmd = CommandManager.getCommand(event.getValues().get(0));
+            if (selectedCmd != null) {
+                selectedCmd.getHelp(event);
             }
-
-            selectedCmd.getHelp(event);
         }
     }
 
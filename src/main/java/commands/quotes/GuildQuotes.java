@@ -0,0 +1,92 @@
+package commands.quotes;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The loaded quotes of one server, along with the search index built over them.
+ * Adding and removing a context takes O(1) besides updating the index.
+ * Thread safe.
+ */
+class GuildQuotes {
+
+    /* All quote contexts of the server. Removal swaps in the last one, so
+     * the order they were added in is kept by the index instead */
+    private final List<QuoteContext> contexts;
+
+    /* Context id -> position of the context in contexts */
+    private final Map<Long, Integer> positions;
+
+    /* Search index over the contexts */
+    final QuoteIndex index;
+
+    GuildQuotes(List<QuoteContext> contextsIn) {
+        contexts = contextsIn;
+        positions = new HashMap<>();
+        for (int i = 0; i < contexts.size(); i++) {
+            positions.put(contexts.get(i).getId(), i);
+        }
+        index = new QuoteIndex(contextsIn);
+    }
+
+
+    /**
+     * @param context context to add
+     * @return true if added, false if a context with the same id is already loaded
+     */
+    synchronized boolean add(QuoteContext context) {
+        if (positions.containsKey(context.getId())) {
+            return false;
+        }
+        positions.put(context.getId(), contexts.size());
+        contexts.add(context);
+        index.add(context);
+        return true;
+    }
+
+
+    /**
+     * @param context context to remove, matched by id
+     * @return true if removed, false if it was not loaded
+     */
+    synchronized boolean remove(QuoteContext context) {
+        Integer position = positions.remove(context.getId());
+        if (position == null) {
+            return false;
+        }
+
+        QuoteContext last = contexts.remove(contexts.size() - 1);
+        if (position < contexts.size()) {
+            contexts.set(position, last);
+            positions.put(last.getId(), position);
+        }
+        index.remove(context);
+        return true;
+    }
+
+
+    /**
+     * @return number of contexts
+     */
+    synchronized int size() {
+        return contexts.size();
+    }
+
+
+    /**
+     * @return every context, in the order they were added
+     */
+    List<QuoteContext> all() {
+        return index.all();
+    }
+
+
+    /**
+     * @param position position of a context, below size()
+     * @return the context at that position, in no particular order
+     */
+    synchronized QuoteContext get(int position) {
+        return contexts.get(position);
+    }
+}
@@ -1,21 +1,16 @@
 package commands.quotes;
 
-import util.IO;
-import net.dv8tion.jda.api.JDA;
+import commands.ComponentRouter;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import static botmilez.config.QUOTE_FILE_PREFIX;
-import static botmilez.config.QUOTE_FILE_SUFFIX;
 import commands.Stoppable;
 
 
@@ -63,9 +58,9 @@ public class QuoteAdder extends ListenerAdapter implements Stoppable{
         contexts = new HashMap<>();
     }
 
-    public void setListening(JDA jda) {
+    public void setListening() {
         isEventListener = true;
-        jda.addEventListener(this);
+        ComponentRouter.initialize().registerMessageHandler(this);
     }
 
     public boolean isEventListener() {
@@ -148,16 +143,26 @@ public class QuoteAdder extends ListenerAdapter implements Stoppable{
             if (statuses.get(author) == Status.INPUT_CORRECT) {
 
                 if (response.equalsIgnoreCase("yes")) {
-                    boolean success = addQuoteToJSON(event);
-                    if (success) {
-                        quoteCommand.getQuoteViewer().setAsModified(event.getGuild().getIdLong());
-                        channel.sendMessage("Quote Successfully added!").queue();
+                    QuoteContext context = contexts.get(author);
+                    context.setAuthor(author.getName());
+                    long guildId = event.getGuild().getIdLong();
+
+                    /* Stored off the event thread. If the executor is full the
+                     * user is still asked to confirm, so they can say yes again */
+                    boolean submitted = quoteCommand.runOffGateway(channel, () -> {
+                        if (addQuoteToJSON(guildId, context)) {
+                            quoteCommand.getQuoteViewer().addQuote(guildId, context);
+                            channel.sendMessage("Quote Successfully added!").queue();
+                        }
+                        else {
+                            channel.sendMessage("Failed to add quote, something went wrong").queue();
+                        }
+                        channel.sendMessage("Process ended.").queue();
+                    });
+
+                    if (submitted) {
+                        clear(author);
                     }
-                    else {
-                        channel.sendMessage("Failed to add quote, something went wrong").queue();
-                    }
-
-                    stop(author, channel);
                     return;
                 }
 
@@ -206,41 +211,13 @@ public class QuoteAdder extends ListenerAdapter implements Stoppable{
 
 
     /**
-     * Prepares a quote context into a JSON format, then sends the json object
-     * to a method that stores the object as a JSON file to save the quote.
-     * @param event gives the guild to which the quote belongs to
+     * Adds a quote context entered by a user to the server's quotes.
+     * @param guildId the guild to which the quote belongs to
+     * @param context the quote context to add
      * @return true if addition of quote was successful, false if not.
      */
-    private boolean addQuoteToJSON(MessageReceivedEvent event) {
-        String path = QUOTE_FILE_PREFIX + event.getGuild().getId() + QUOTE_FILE_SUFFIX;
-        JSONObject jsonObj = new JSONObject();
-
-        JSONArray quoteArray = new JSONArray();
-        JSONObject jsonQuote;
-
-        for (Quote quote : contexts.get(event.getAuthor()).getQuotes()) {
-            jsonQuote = new JSONObject();
-            jsonQuote.put("name", quote.getName());
-            jsonQuote.put("quote", quote.getQuote());
-            jsonQuote.put("year", quote.getYear());
-            quoteArray.add(jsonQuote);
-        }
-
-        jsonObj.put("author", event.getAuthor().getName());
-        jsonObj.put("context", quoteArray);
-
-        JSONArray contextArray;
-        if (IO.fileExists(path)) {
-            contextArray = (JSONArray)IO.readJson(path);
-        }
-        else {
-            contextArray = new JSONArray();
-        }
-        contextArray.add(jsonObj);
-
-
-
-        return IO.writeJson(contextArray ,path);
+    private boolean addQuoteToJSON(long guildId, QuoteContext context) {
+        return QuoteJournal.add(guildId, context);
     }
 
 
@@ -316,6 +293,16 @@ public class QuoteAdder extends ListenerAdapter implements Stoppable{
 
     @Override
     public void stop(User user, MessageChannel channel) {
+        clear(user);
+        channel.sendMessage("Process ended.").queue();
+    }
+
+
+    /**
+     * Forgets the quote a user was entering.
+     * @param user user that was adding a quote
+     */
+    private void clear(User user) {
         if (statuses.containsKey(user)) {
             statuses.remove(user);
         }
@@ -325,7 +312,6 @@ public class QuoteAdder extends ListenerAdapter implements Stoppable{
         if (contexts.containsKey(user)) {
             contexts.remove(user);
         }
-        channel.sendMessage("Process ended.").queue();
     }
 
 }
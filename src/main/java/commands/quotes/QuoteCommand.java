@@ -1,5 +1,7 @@
 package commands.quotes;
 
+import commands.CommandManager;
+import commands.ComponentRouter;
 import commands.IBotCommand;
 
 import net.dv8tion.jda.api.entities.MessageEmbed;
@@ -47,6 +49,17 @@ public class QuoteCommand extends ListenerAdapter implements IBotCommand {
         viewer = new QuoteViewer(this);
         remover = new QuoteRemover(this);
         scrollId = "quotehelp";
+
+        ComponentRouter router = ComponentRouter.initialize();
+        router.register(BUTTON_ID_ADD, this);
+        router.register(BUTTON_ID_VIEW, this);
+        router.register(BUTTON_ID_DELETE, this);
+        router.registerPageBuilder(scrollId, this);
+        router.register(SELECT_MENU_VIEW, viewer);
+        router.register(SELECT_MENU_SEARCH, viewer);
+        router.registerPageBuilder(QuoteViewer.SCROLL_ID, viewer);
+        router.register(SELECT_MENU_DELETE, remover);
+        router.register(SELECT_MENU_SEARCH_DELETE, remover);
     }
 
     @Override
@@ -66,7 +79,7 @@ public class QuoteCommand extends ListenerAdapter implements IBotCommand {
 
     @Override
     public void doAction(SlashCommandInteractionEvent event) {
-        event.reply("Choose which option you'd like to use")
+        event.getHook().sendMessage("Choose which option you'd like to use")
                 .addActionRow(
                         Button.success(BUTTON_ID_ADD, "Add a quote"),
                         Button.primary(BUTTON_ID_VIEW, "View quote"),
@@ -75,6 +88,23 @@ public class QuoteCommand extends ListenerAdapter implements IBotCommand {
 
     }
 
+    /**
+     * Runs a task that reads or writes quotes on disk on this command's
+     * executor, rather than on the JDA event thread.
+     *
+     * @param channel channel to tell if the executor is full
+     * @param task task to run
+     * @return true if the task was submitted, false if the executor was full
+     */
+    boolean runOffGateway(MessageChannel channel, Runnable task) {
+        if (!CommandManager.submit(getName(), task)) {
+            channel.sendMessage("I'm handling too many quote requests right now. " +
+                    "Please try again in a moment.").queue();
+            return false;
+        }
+        return true;
+    }
+
     @Override
     public void getHelp(StringSelectInteractionEvent event) {
 
@@ -181,7 +211,9 @@ public class QuoteCommand extends ListenerAdapter implements IBotCommand {
 
         String randomQuote = "When selecting the random quote option " +
                 "the bot will send one randomly-selected quote out of all " +
-                "server quotes stored in the bot.";
+                "server quotes stored in the bot. The recent option favors " +
+                "quotes from newer years, and the rare option favors quotes " +
+                "that have been shown less often.";
 
         String allQuotes = "When selecting the all quotes option," +
                 "The bot will send an embed with all of the quotes for this server " +
@@ -290,7 +322,7 @@ public class QuoteCommand extends ListenerAdapter implements IBotCommand {
 
         if (event.getComponentId().equals(BUTTON_ID_ADD)) {
             if (!adder.isEventListener()) {
-                adder.setListening(event.getJDA());
+                adder.setListening();
             }
             event.editMessage("You selected: Add a quote").setComponents().queue();
             adder.onNewStatus(user, event.getChannel());
@@ -299,7 +331,7 @@ public class QuoteCommand extends ListenerAdapter implements IBotCommand {
         if (event.getComponentId().equals(BUTTON_ID_VIEW)) {
 
             if (!viewer.isEventListener()) {
-                viewer.setListening(event.getJDA());
+                viewer.setListening();
             }
             event.editMessage("You selected: View a quote").setComponents().queue();
             event.getChannel().sendMessage("What do you want to do?")
@@ -307,6 +339,10 @@ public class QuoteCommand extends ListenerAdapter implements IBotCommand {
                             StringSelectMenu.create(SELECT_MENU_VIEW)
                                     .addOption("Random Quote", SELECT_CHOICE_RANDOM,
                                             "Get a random quote from this server")
+                                    .addOption("Random Recent Quote", SELECT_CHOICE_RANDOM_RECENT,
+                                            "Get a random quote, favoring newer years")
+                                    .addOption("Random Rare Quote", SELECT_CHOICE_RANDOM_RARE,
+                                            "Get a random quote, favoring ones shown less often")
                                     .addOption("All Quotes", SELECT_CHOICE_ALL,
                                             "View all server quotes")
                                     .addOption("Search", SELECT_CHOICE_SEARCH,
@@ -319,10 +355,10 @@ public class QuoteCommand extends ListenerAdapter implements IBotCommand {
 
         if (event.getComponentId().equals(BUTTON_ID_DELETE)) {
             if (!viewer.isEventListener()) {
-                viewer.setListening(event.getJDA());
+                viewer.setListening();
             }
             if (!remover.isEventListener()) {
-                remover.setListening(event.getJDA());
+                remover.setListening();
             }
 
             event.editMessage("You selected: Remove a quote").setComponents().queue();
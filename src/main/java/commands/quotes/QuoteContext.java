@@ -23,6 +23,8 @@ public class QuoteContext {
     private List<Quote> quotes;
     /* Name of user that added this context */
     private String author;
+    /* Identifies this context in its server's quote journal, 0 if not assigned yet */
+    private long id;
 
 
     public QuoteContext() {
@@ -41,6 +43,13 @@ public class QuoteContext {
         return author;
     }
 
+    public void setId(long idIn) {
+        id = idIn;
+    }
+    public long getId() {
+        return id;
+    }
+
     public void addQuoteToContext(Quote quote) {
         quotes.add(quote);
     }
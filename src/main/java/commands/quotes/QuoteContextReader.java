@@ -0,0 +1,83 @@
+package commands.quotes;
+
+import util.JsonStreamHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds quote contexts straight from a stream of a server's quotes file,
+ * which is an array of contexts:
+ *
+ * [ {"id": .., "author": .., "context": [ {"name": .., "quote": .., "year": ..}, .. ]}, .. ]
+ *
+ * Files written before ids existed have no "id", those contexts are given
+ * one by QuoteJournal.legacyId().
+ */
+class QuoteContextReader extends JsonStreamHandler {
+
+    /* Depths of a context object and a quote object within the file */
+    private static final int CONTEXT_DEPTH = 2;
+    private static final int QUOTE_DEPTH = 4;
+
+    private final List<QuoteContext> contexts = new ArrayList<>();
+
+    private QuoteContext context;
+    private Long contextId;
+    private Quote quote;
+
+    /**
+     * @return all contexts read, in the order of the file
+     */
+    List<QuoteContext> getContexts() {
+        return contexts;
+    }
+
+    @Override
+    protected void startObject(String key) {
+        if (depth() == CONTEXT_DEPTH) {
+            context = new QuoteContext();
+            contextId = null;
+        }
+        else if (depth() == QUOTE_DEPTH) {
+            quote = new Quote();
+        }
+    }
+
+    @Override
+    protected void endObject(String key) {
+        if (depth() == CONTEXT_DEPTH) {
+            context.setId(contextId != null ?
+                    contextId : QuoteJournal.legacyId(context, contexts.size()));
+            contexts.add(context);
+            context = null;
+        }
+        else if (depth() == QUOTE_DEPTH) {
+            context.addQuoteToContext(quote);
+            quote = null;
+        }
+    }
+
+    @Override
+    protected void value(String key, Object value) {
+        if (depth() == CONTEXT_DEPTH) {
+            if ("author".equals(key)) {
+                context.setAuthor((String)value);
+            }
+            else if ("id".equals(key)) {
+                contextId = (Long)value;
+            }
+        }
+        else if (depth() == QUOTE_DEPTH) {
+            if ("name".equals(key)) {
+                quote.setName((String)value);
+            }
+            else if ("quote".equals(key)) {
+                quote.setQuote((String)value);
+            }
+            else if ("year".equals(key)) {
+                quote.setYear(value == null ? null : value.toString());
+            }
+        }
+    }
+}
@@ -8,6 +8,8 @@ public class QuoteIDs {
 
     public static final String SELECT_MENU_VIEW = "viewmenu";
     public static final String SELECT_CHOICE_RANDOM = "viewrandom";
+    public static final String SELECT_CHOICE_RANDOM_RECENT = "viewrandomrecent";
+    public static final String SELECT_CHOICE_RANDOM_RARE = "viewrandomrare";
     public static final String SELECT_CHOICE_ALL = "viewall";
     public static final String SELECT_CHOICE_SEARCH = "viewsearch";
     public static final String SELECT_MENU_SEARCH = "searchmenu";
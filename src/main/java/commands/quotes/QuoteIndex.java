@@ -0,0 +1,286 @@
+package commands.quotes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * QuoteIndex: An inverted index over the quotes of one server, so searching
+ * costs time based on the number of matches instead of the number of quotes.
+ *
+ * The words of what was said, of who said it, and of who added it are each
+ * mapped to the contexts they appear in, and so are the years. A search term
+ * is split into words the same way, and a context matches if every word of
+ * the term is the start of some word in the searched field. e.g. "sky bl"
+ * matches "The sky is blue" but not "The sky".
+ *
+ * Results are returned in the order the contexts were added to the index.
+ */
+public class QuoteIndex {
+
+    /**
+     * Parts of a quote context that can be searched by words
+     */
+    public enum Field {
+        SAID, /* What was said in any quote of the context */
+        SPEAKER, /* Who said any quote of the context */
+        AUTHOR /* Who added the context to the bot */
+    }
+
+    /* Key of quotes without a year in the year index */
+    private static final int NO_YEAR = Integer.MIN_VALUE;
+
+    /* Anything that is not a letter or digit separates words */
+    private static final String WORD_SEPARATOR = "[^\\p{L}\\p{N}]+";
+
+    /* Field -> word -> ordinals of contexts containing that word */
+    private final Map<Field, TreeMap<String, Set<Long>>> wordIndexes;
+
+    /* Year -> ordinals of contexts with a quote from that year */
+    private final Map<Integer, Set<Long>> yearIndex;
+
+    /* Ordinal -> context. Ordinals increase with each context added */
+    private final TreeMap<Long, QuoteContext> contexts;
+
+    /* Context id -> ordinal of that context */
+    private final Map<Long, Long> ordinals;
+
+    private long nextOrdinal;
+
+    /**
+     * Builds the index from a server's quotes
+     * @param quoteContexts all quotes of the server, in the order they were added
+     */
+    public QuoteIndex(List<QuoteContext> quoteContexts) {
+        wordIndexes = new HashMap<>();
+        for (Field field : Field.values()) {
+            wordIndexes.put(field, new TreeMap<>());
+        }
+        yearIndex = new HashMap<>();
+        contexts = new TreeMap<>();
+        ordinals = new HashMap<>();
+        nextOrdinal = 0;
+
+        for (QuoteContext context : quoteContexts) {
+            add(context);
+        }
+    }
+
+
+    /**
+     * Adds a context to the index. Does nothing if a context with the
+     * same id is already indexed.
+     *
+     * @param context context to add
+     */
+    public synchronized void add(QuoteContext context) {
+        if (ordinals.containsKey(context.getId())) {
+            return;
+        }
+
+        long ordinal = nextOrdinal++;
+        ordinals.put(context.getId(), ordinal);
+        contexts.put(ordinal, context);
+
+        for (Field field : Field.values()) {
+            for (String word : wordsOf(context, field)) {
+                wordIndexes.get(field).computeIfAbsent(word, w -> new HashSet<>()).add(ordinal);
+            }
+        }
+        for (int year : yearsOf(context)) {
+            yearIndex.computeIfAbsent(year, y -> new HashSet<>()).add(ordinal);
+        }
+    }
+
+
+    /**
+     * Removes a context from the index.
+     *
+     * @param context context to remove
+     * @return true if it was indexed, false if not.
+     */
+    public synchronized boolean remove(QuoteContext context) {
+        Long ordinal = ordinals.remove(context.getId());
+        if (ordinal == null) {
+            return false;
+        }
+        contexts.remove(ordinal);
+
+        for (Field field : Field.values()) {
+            TreeMap<String, Set<Long>> index = wordIndexes.get(field);
+            for (String word : wordsOf(context, field)) {
+                removePosting(index, word, ordinal);
+            }
+        }
+        for (int year : yearsOf(context)) {
+            removePosting(yearIndex, year, ordinal);
+        }
+        return true;
+    }
+
+
+    /**
+     * Finds all contexts where every word of the search term is the start
+     * of a word in the given field.
+     *
+     * @param field part of the contexts to search in
+     * @param term search term
+     * @return matching contexts in the order they were added. Empty if the
+     *         term has no words.
+     */
+    public synchronized List<QuoteContext> search(Field field, String term) {
+        List<String> words = tokenize(term);
+        if (words.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        TreeMap<String, Set<Long>> index = wordIndexes.get(field);
+
+        /* Ordinals matching each word. Each is the union over all words starting with it */
+        List<Set<Long>> matchesPerWord = new ArrayList<>();
+        for (String word : words) {
+            SortedMap<String, Set<Long>> wordsWithPrefix = index.subMap(word, word + Character.MAX_VALUE);
+            if (wordsWithPrefix.isEmpty()) {
+                return new ArrayList<>();
+            }
+
+            Set<Long> matches;
+            if (wordsWithPrefix.size() == 1) {
+                matches = wordsWithPrefix.values().iterator().next();
+            }
+            else {
+                matches = new HashSet<>();
+                for (Set<Long> postings : wordsWithPrefix.values()) {
+                    matches.addAll(postings);
+                }
+            }
+            matchesPerWord.add(matches);
+        }
+
+        return toContexts(intersect(matchesPerWord));
+    }
+
+
+    /**
+     * Finds all contexts that have a quote from the given year.
+     *
+     * @param year year to search for, null for quotes that have no year
+     * @return matching contexts in the order they were added.
+     */
+    public synchronized List<QuoteContext> searchYear(Integer year) {
+        Set<Long> matches = yearIndex.get(year == null ? NO_YEAR : year);
+        if (matches == null) {
+            return new ArrayList<>();
+        }
+        return toContexts(matches);
+    }
+
+
+    /**
+     * @return every indexed context, in the order they were added
+     */
+    public synchronized List<QuoteContext> all() {
+        return new ArrayList<>(contexts.values());
+    }
+
+
+    /**
+     * @return number of contexts in the index
+     */
+    public synchronized int size() {
+        return contexts.size();
+    }
+
+
+    /**
+     * Splits text into lowercase words, the same way for indexing and searching.
+     *
+     * @param text text to split
+     * @return the words of the text
+     */
+    public static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        for (String word : text.toLowerCase().split(WORD_SEPARATOR)) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+
+    private static Set<String> wordsOf(QuoteContext context, Field field) {
+        Set<String> words = new HashSet<>();
+        if (field == Field.AUTHOR) {
+            words.addAll(tokenize(context.getAuthor()));
+            return words;
+        }
+
+        for (Quote quote : context.getQuotes()) {
+            words.addAll(tokenize(field == Field.SAID ? quote.getQuote() : quote.getName()));
+        }
+        return words;
+    }
+
+
+    private static Set<Integer> yearsOf(QuoteContext context) {
+        Set<Integer> years = new HashSet<>();
+        for (Quote quote : context.getQuotes()) {
+            years.add(quote.getYear() == null ? NO_YEAR : quote.getYear());
+        }
+        return years;
+    }
+
+
+    private static <K> void removePosting(Map<K, Set<Long>> index, K key, long ordinal) {
+        Set<Long> postings = index.get(key);
+        if (postings != null) {
+            postings.remove(ordinal);
+            if (postings.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+
+    /**
+     * Intersects sets starting from the smallest one, so the work done is
+     * bounded by the size of the smallest set.
+     */
+    private static Set<Long> intersect(List<Set<Long>> sets) {
+        sets.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+        Set<Long> result = new HashSet<>();
+        for (Long ordinal : sets.get(0)) {
+            boolean inAll = true;
+            for (int i = 1; i < sets.size() && inAll; i++) {
+                inAll = sets.get(i).contains(ordinal);
+            }
+            if (inAll) {
+                result.add(ordinal);
+            }
+        }
+        return result;
+    }
+
+
+    private List<QuoteContext> toContexts(Set<Long> matches) {
+        List<Long> sorted = new ArrayList<>(matches);
+        Collections.sort(sorted);
+
+        List<QuoteContext> result = new ArrayList<>(sorted.size());
+        for (Long ordinal : sorted) {
+            result.add(contexts.get(ordinal));
+        }
+        return result;
+    }
+}
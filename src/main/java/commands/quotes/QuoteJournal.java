@@ -0,0 +1,537 @@
+package commands.quotes;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import util.IO;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static botmilez.config.QUOTE_FILE_PREFIX;
+import static botmilez.config.QUOTE_FILE_SUFFIX;
+
+/**
+ * QuoteJournal: Stores the quotes of each server as a snapshot file plus a
+ * journal of changes made since the snapshot was written.
+ *
+ * The snapshot is a binary QuoteSnapshot. Servers whose quotes were stored
+ * before it existed only have the JSON quotes file, which is read as the
+ * snapshot until their first compaction. After each compaction the JSON file
+ * is rewritten in the background as a readable export. Adding or removing a
+ * quote only appends one line to the journal, so it costs the same no matter
+ * how many quotes a server has. Loading reads the snapshot then replays the
+ * journal on top of it. Once the journal grows past COMPACT_THRESHOLD lines,
+ * the current quotes are written as the new snapshot in the background and
+ * the journal is started over.
+ *
+ * Every context has an id, which is what removals refer to. Replaying is
+ * idempotent by id, so if the bot stops after a new snapshot is written but
+ * before the old journal is deleted, replaying that journal again changes nothing.
+ *
+ * A crash while appending can leave the journal's last line cut off. That
+ * record was never acknowledged, so it is dropped before the journal is
+ * first read or appended to, rather than letting the next record be
+ * appended onto the same line and lost with it.
+ */
+public class QuoteJournal {
+
+    public static final String JOURNAL_SUFFIX = "_quotes.journal";
+
+    /* Number of journal lines after which the journal is folded into the snapshot */
+    private static final int COMPACT_THRESHOLD = 256;
+
+    private static final String OP_ADD = "add";
+    private static final String OP_REMOVE = "del";
+
+    /* serverId -> lock held while that server's files are written */
+    private static final Map<Long, Object> locks = new ConcurrentHashMap<>();
+
+    /* serverId -> number of lines in that server's journal */
+    private static final Map<Long, Integer> journalSizes = new ConcurrentHashMap<>();
+
+    /* serverId -> picker of random quotes for that server, opened on first use */
+    private static final Map<Long, RandomQuotePicker> pickers = new ConcurrentHashMap<>();
+
+    /* Servers whose journal was checked for a line cut off by a crash since
+     * the bot started, or since an append to it last failed */
+    private static final Set<Long> journalsRepaired = ConcurrentHashMap.newKeySet();
+
+    /* Servers waiting for their journal to be compacted */
+    private static final Set<Long> compactionsQueued = ConcurrentHashMap.newKeySet();
+
+    private static final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "quote-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+
+    /**
+     * Loads all quotes of a server, in the order they were added.
+     *
+     * @param guildId id of the server
+     * @return the server's quotes, empty if it has none, null if they could not be read.
+     */
+    public static List<QuoteContext> load(long guildId) {
+        synchronized (lockOf(guildId)) {
+            Map<Long, QuoteContext> contexts = replay(guildId);
+            if (contexts == null) {
+                return null;
+            }
+            return new ArrayList<>(contexts.values());
+        }
+    }
+
+
+    /**
+     * Adds a quote context to a server's quotes, giving it a new id.
+     *
+     * @param guildId id of the server
+     * @param context context to add
+     * @return true if successful, false if not.
+     */
+    public static boolean add(long guildId, QuoteContext context) {
+        context.setId(newId());
+
+        JSONObject record = contextToJson(context);
+        record.put("op", OP_ADD);
+
+        synchronized (lockOf(guildId)) {
+            if (!append(guildId, record)) {
+                return false;
+            }
+            RandomQuotePicker picker = pickers.get(guildId);
+            if (picker != null) {
+                picker.onAdded(context);
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * Removes a quote context from a server's quotes.
+     *
+     * @param guildId id of the server
+     * @param contextId id of the context to remove
+     * @return true if successful, false if not.
+     */
+    public static boolean remove(long guildId, long contextId) {
+        JSONObject record = new JSONObject();
+        record.put("op", OP_REMOVE);
+        record.put("id", contextId);
+
+        synchronized (lockOf(guildId)) {
+            if (!append(guildId, record)) {
+                return false;
+            }
+            RandomQuotePicker picker = pickers.get(guildId);
+            if (picker != null) {
+                picker.onRemoved(contextId);
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * Picks a random quote context of a server without loading the others.
+     *
+     * @param guildId id of the server
+     * @param mode how contexts are weighted
+     * @return the picked context, or null if the server has no quotes or they
+     *         cannot be picked from without loading them all (e.g. the server
+     *         has no binary snapshot yet).
+     */
+    static QuoteContext pickRandom(long guildId, RandomQuotePicker.Mode mode) {
+        synchronized (lockOf(guildId)) {
+            RandomQuotePicker picker = pickers.get(guildId);
+            if (picker == null) {
+                picker = openPicker(guildId);
+                if (picker == null) {
+                    return null;
+                }
+                pickers.put(guildId, picker);
+            }
+            return picker.pick(mode);
+        }
+    }
+
+
+    /**
+     * Converts a quote context into the JSON format used by the snapshot
+     * and the journal.
+     *
+     * @param context context to convert
+     * @return the context as a JSON object
+     */
+    public static JSONObject contextToJson(QuoteContext context) {
+        JSONObject jsonContext = new JSONObject();
+        JSONArray quoteArray = new JSONArray();
+
+        for (Quote quote : context.getQuotes()) {
+            JSONObject jsonQuote = new JSONObject();
+            jsonQuote.put("name", quote.getName());
+            jsonQuote.put("quote", quote.getQuote());
+            jsonQuote.put("year", quote.getYear());
+            quoteArray.add(jsonQuote);
+        }
+
+        jsonContext.put("id", context.getId());
+        jsonContext.put("author", context.getAuthor());
+        jsonContext.put("context", quoteArray);
+        return jsonContext;
+    }
+
+
+    /**
+     * Converts a JSON object in the format used by the snapshot and the
+     * journal into a quote context. Contexts stored before ids were added
+     * are given one based on their content and their position in the file.
+     *
+     * @param contextObj JSON object to convert
+     * @param position index of the object in the file it was read from
+     * @return the quote context
+     */
+    public static QuoteContext jsonToContext(JSONObject contextObj, int position) {
+        QuoteContext context = new QuoteContext();
+        context.setAuthor((String)contextObj.get("author"));
+        JSONArray quoteArray = (JSONArray)contextObj.get("context");
+
+        for (Object quoteElement : quoteArray) {
+            Quote quote = new Quote();
+            JSONObject quoteObj = (JSONObject)quoteElement;
+            quote.setName((String)quoteObj.get("name"));
+            quote.setQuote((String)quoteObj.get("quote"));
+            Long year = (Long)quoteObj.get("year");
+            if (year == null) {
+                quote.setYear(null);
+            }
+            else {
+                quote.setYear(Long.toString(year));
+            }
+            context.addQuoteToContext(quote);
+        }
+
+        Long id = (Long)contextObj.get("id");
+        context.setId(id != null ? id : legacyId(context, position));
+        return context;
+    }
+
+
+    /**
+     * @param guildId id of the server
+     * @return path of the server's JSON quotes file
+     */
+    public static String jsonPath(long guildId) {
+        return QUOTE_FILE_PREFIX + guildId + QUOTE_FILE_SUFFIX;
+    }
+
+
+    /**
+     * @param guildId id of the server
+     * @return path of the server's journal file
+     */
+    public static String journalPath(long guildId) {
+        return QUOTE_FILE_PREFIX + guildId + JOURNAL_SUFFIX;
+    }
+
+
+    private static boolean append(long guildId, JSONObject record) {
+        boolean success;
+        int size;
+
+        synchronized (lockOf(guildId)) {
+            if (!repairJournal(guildId)) {
+                return false;
+            }
+            size = journalSize(guildId);
+            success = IO.appendLine(record.toJSONString(), journalPath(guildId));
+            if (success) {
+                size++;
+                journalSizes.put(guildId, size);
+            }
+            else {
+                /* The failed write may have left part of a line behind */
+                journalsRepaired.remove(guildId);
+            }
+        }
+
+        if (success && size >= COMPACT_THRESHOLD && compactionsQueued.add(guildId)) {
+            compactor.execute(() -> compact(guildId));
+        }
+        return success;
+    }
+
+
+    /**
+     * Writes the current quotes of a server as its new snapshot and
+     * deletes its journal.
+     */
+    private static void compact(long guildId) {
+        compactionsQueued.remove(guildId);
+
+        synchronized (lockOf(guildId)) {
+            Map<Long, QuoteContext> contexts = replay(guildId);
+            if (contexts == null) {
+                return;
+            }
+
+            /* The journal is only dropped once the snapshot is safely on disk */
+            if (!QuoteSnapshot.save(guildId, contexts.values())) {
+                System.out.println("Failed to compact quotes of server " + guildId);
+                return;
+            }
+            IO.deleteFile(journalPath(guildId));
+            journalSizes.put(guildId, 0);
+
+            /* Opened again from the new snapshot on next use */
+            pickers.remove(guildId);
+
+            JSONArray contextArray = new JSONArray();
+            for (QuoteContext context : contexts.values()) {
+                contextArray.add(contextToJson(context));
+            }
+            IO.writeJsonLater(contextArray, jsonPath(guildId));
+        }
+    }
+
+
+    /**
+     * Reads the snapshot of a server and replays its journal on top of it.
+     * Must be called while holding the server's lock.
+     *
+     * @return context id -> context in the order they were added, null on error
+     */
+    private static Map<Long, QuoteContext> replay(long guildId) {
+        Map<Long, QuoteContext> contexts = new LinkedHashMap<>();
+
+        List<QuoteContext> snapshot = readSnapshot(guildId);
+        if (snapshot == null) {
+            return null;
+        }
+        for (QuoteContext context : snapshot) {
+            contexts.putIfAbsent(context.getId(), context);
+        }
+
+        if (!applyJournal(guildId, contexts, null)) {
+            return null;
+        }
+        return contexts;
+    }
+
+
+    /**
+     * Applies the records of a server's journal to the given contexts. Must
+     * be called while holding the server's lock.
+     *
+     * @param contexts context id -> context, added to and removed from by the records
+     * @param removedElsewhere if not null, ids removed by the journal that are
+     *                         not in contexts are added to it
+     * @return true if successful, false if the journal could not be read
+     */
+    private static boolean applyJournal(long guildId, Map<Long, QuoteContext> contexts,
+                                        Set<Long> removedElsewhere) {
+        String journal = journalPath(guildId);
+        if (!IO.fileExists(journal)) {
+            journalSizes.put(guildId, 0);
+            return true;
+        }
+        if (!repairJournal(guildId)) {
+            return false;
+        }
+
+        JSONParser parser = new JSONParser();
+        int lines = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(journal))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                JSONObject record;
+                try {
+                    record = (JSONObject)parser.parse(line);
+                }
+                catch (ParseException e) {
+                    /* Lines cut off by a crash are dropped by repairJournal(), so
+                     * this is a line damaged some other way, skip it */
+                    System.out.println("Skipping unreadable line " + lines + " of " + journal);
+                    continue;
+                }
+
+                if (OP_ADD.equals(record.get("op"))) {
+                    QuoteContext context = jsonToContext(record, -1);
+                    contexts.putIfAbsent(context.getId(), context);
+                }
+                else if (OP_REMOVE.equals(record.get("op"))) {
+                    Long id = (Long)record.get("id");
+                    if (contexts.remove(id) == null && removedElsewhere != null) {
+                        removedElsewhere.add(id);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            System.out.println(e.getLocalizedMessage());
+            return false;
+        }
+
+        journalSizes.put(guildId, lines);
+        return true;
+    }
+
+
+    /**
+     * Opens a random quote picker over the binary snapshot of a server and
+     * the journal written since. Must be called while holding the server's lock.
+     *
+     * @return the picker, or null if it cannot be opened.
+     */
+    private static RandomQuotePicker openPicker(long guildId) {
+        QuoteSnapshot.Index snapshot = null;
+
+        String binary = QuoteSnapshot.snapshotPath(guildId);
+        if (IO.fileExists(binary)) {
+            snapshot = QuoteSnapshot.openIndex(binary);
+        }
+
+        /* Quotes only stored as JSON, or in a snapshot from before the offset
+         * index existed, are rewritten as a new snapshot so this works next time */
+        if (snapshot == null && (IO.fileExists(binary) || IO.fileExists(jsonPath(guildId)))) {
+            if (compactionsQueued.add(guildId)) {
+                compactor.execute(() -> compact(guildId));
+            }
+            return null;
+        }
+
+        Map<Long, QuoteContext> addedSince = new LinkedHashMap<>();
+        Set<Long> removedSince = new HashSet<>();
+        if (!applyJournal(guildId, addedSince, removedSince)) {
+            return null;
+        }
+
+        RandomQuotePicker picker = new RandomQuotePicker(snapshot);
+        for (QuoteContext context : addedSince.values()) {
+            picker.onAdded(context);
+        }
+        for (long id : removedSince) {
+            picker.onRemoved(id);
+        }
+        return picker;
+    }
+
+
+    /**
+     * Reads the binary snapshot of a server, or its JSON quotes file if it
+     * has no binary snapshot yet.
+     *
+     * @return the contexts in the snapshot, empty if there is none, null on error
+     */
+    private static List<QuoteContext> readSnapshot(long guildId) {
+        String binary = QuoteSnapshot.snapshotPath(guildId);
+        if (IO.fileExists(binary)) {
+            return QuoteSnapshot.read(binary);
+        }
+
+        String json = jsonPath(guildId);
+        if (IO.fileExists(json)) {
+            QuoteContextReader reader = new QuoteContextReader();
+            if (!IO.streamJson(json, reader)) {
+                return null;
+            }
+            return reader.getContexts();
+        }
+
+        return new ArrayList<>();
+    }
+
+
+    /**
+     * @return number of lines in a server's journal, counting them if not known yet.
+     */
+    private static int journalSize(long guildId) {
+        Integer size = journalSizes.get(guildId);
+        if (size != null) {
+            return size;
+        }
+
+        int lines = 0;
+        String journal = journalPath(guildId);
+        if (IO.fileExists(journal)) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(journal))) {
+                while (reader.readLine() != null) {
+                    lines++;
+                }
+            }
+            catch (IOException e) {
+                System.out.println(e.getLocalizedMessage());
+            }
+        }
+        journalSizes.put(guildId, lines);
+        return lines;
+    }
+
+
+    /**
+     * Drops a record cut off by a crash from the end of a server's journal,
+     * the first time the journal is used. Must be called while holding the
+     * server's lock.
+     *
+     * @return true if the journal ends with a whole record now, false if it could not be fixed.
+     */
+    private static boolean repairJournal(long guildId) {
+        if (journalsRepaired.contains(guildId)) {
+            return true;
+        }
+        String journal = journalPath(guildId);
+        if (IO.fileExists(journal) && !IO.dropUnterminatedLine(journal)) {
+            return false;
+        }
+        journalsRepaired.add(guildId);
+        return true;
+    }
+
+
+    private static Object lockOf(long guildId) {
+        return locks.computeIfAbsent(guildId, id -> new Object());
+    }
+
+
+    private static long newId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+
+    /**
+     * Id for a context stored before ids existed. It only has to stay the same
+     * until the next compaction, which writes it into the binary snapshot.
+     */
+    static long legacyId(QuoteContext context, int position) {
+        /* 64-bit FNV-1a over the content, mixed with the position so that
+         * two identical contexts still get different ids */
+        long hash = 0xcbf29ce484222325L;
+        String content = context.getAuthor() + "\n" + context.toString();
+        for (int i = 0; i < content.length(); i++) {
+            hash ^= content.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= position * 0x9E3779B97F4A7C15L;
+        return hash == 0 ? 1 : hash;
+    }
+}
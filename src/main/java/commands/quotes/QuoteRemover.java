@@ -1,20 +1,16 @@
 package commands.quotes;
 
-import util.IO;
-import net.dv8tion.jda.api.JDA;
+import commands.ComponentRouter;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 import net.dv8tion.jda.api.events.interaction.component.StringSelectInteractionEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.interactions.components.selections.StringSelectMenu;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-import static botmilez.config.QUOTE_FILE_PREFIX;
-import static botmilez.config.QUOTE_FILE_SUFFIX;
 import static commands.quotes.QuoteIDs.*;
 
 /**
@@ -23,6 +19,7 @@ import static commands.quotes.QuoteIDs.*;
  */
 public class QuoteRemover extends ListenerAdapter {
 
+    /* Also used by the quote viewer off the gateway thread */
     private Map<User, DeletionState> usersState;
     private Map<User, List<QuoteContext>> usersCandidates;
     private Map<User, QuoteContext> usersDeleting;
@@ -40,52 +37,24 @@ public class QuoteRemover extends ListenerAdapter {
     }
 
     public QuoteRemover(QuoteCommand instance) {
-        usersState = new HashMap<>();
+        usersState = new ConcurrentHashMap<>();
         quoteCommand = instance;
         isEventListener = false;
-        usersCandidates = new HashMap<>();
+        usersCandidates = new ConcurrentHashMap<>();
         acknowledgedMessages = new HashSet<>();
         usersDeleting = new HashMap<>();
     }
 
 
     /**
-     * Removes a quote context from a file
+     * Removes a quote context chosen by a user from the server's quotes
      *
-     * @param event The event that triggered this method
+     * @param guildId the server the quote belongs to
+     * @param context the quote context to remove
      * @return true if successful removal, false if not.
      */
-    private boolean removeQuoteFromJSON(MessageReceivedEvent event) {
-        String path = QUOTE_FILE_PREFIX + event.getGuild().getId() + QUOTE_FILE_SUFFIX;
-        List<QuoteContext> contexts = QuoteViewer.jsonToQuoteContext(path);
-        if (contexts == null) {
-            return false;
-        }
-
-        contexts.remove(usersDeleting.get(event.getAuthor()));
-
-        /* Re-pack JSON object to write back to file with the quote removed */
-        JSONArray contextArray= new JSONArray();
-        for (QuoteContext context : contexts) {
-            JSONObject jsonContext = new JSONObject();
-            JSONArray quoteArray = new JSONArray();
-            JSONObject jsonQuote;
-
-            for (Quote quote : context.getQuotes()) {
-                jsonQuote = new JSONObject();
-                jsonQuote.put("name", quote.getName());
-                jsonQuote.put("quote", quote.getQuote());
-                jsonQuote.put("year", quote.getYear());
-                quoteArray.add(jsonQuote);
-            }
-
-            jsonContext.put("author", context.getAuthor());
-            jsonContext.put("context", quoteArray);
-            contextArray.add(jsonContext);
-        }
-
-        return IO.writeJson(contextArray ,path);
-
+    private boolean removeQuoteFromJSON(long guildId, QuoteContext context) {
+        return QuoteJournal.remove(guildId, context.getId());
     }
 
     /**
@@ -96,12 +65,11 @@ public class QuoteRemover extends ListenerAdapter {
     }
 
     /**
-     * Set this object as an event listener to the jda to listen for events
-     * @param jda JDA to add this object as a listener to
+     * Set this object to receive messages through the component router
      */
-    public void setListening(JDA jda) {
+    public void setListening() {
         isEventListener = true;
-        jda.addEventListener(this);
+        ComponentRouter.initialize().registerMessageHandler(this);
     }
 
     /**
@@ -140,8 +108,10 @@ public class QuoteRemover extends ListenerAdapter {
 
             if (event.getValues().get(0).equals(SELECT_CHOICE_ALL)) {
                 event.editMessage("Fetching all quotes..").setComponents().queue();
-                quoteCommand.getQuoteViewer().initAllQuoteEmbed(event, true);
-                event.getChannel().sendMessage("Enter the entry # of the quote you want to delete").queue();
+                quoteCommand.runOffGateway(channel, () -> {
+                    quoteCommand.getQuoteViewer().initAllQuoteEmbed(event, true);
+                    channel.sendMessage("Enter the entry # of the quote you want to delete").queue();
+                });
             }
             if (event.getValues().get(0).equals(SELECT_CHOICE_SEARCH)) {
                 event.editMessage("Select how you want to filter your search.").queue();
@@ -236,13 +206,23 @@ public class QuoteRemover extends ListenerAdapter {
 
             if (usersState.get(user) == DeletionState.CONFIRMING) {
                 if (response.equalsIgnoreCase("yes")) {
-                    boolean success = removeQuoteFromJSON(event);
-                    if (success) {
-                        quoteCommand.getQuoteViewer().setAsModified(event.getGuild().getIdLong());
-                        channel.sendMessage("Quote has been removed.").queue();
-                    }
-                    else {
-                        channel.sendMessage("Error: Removal failed.").queue();
+                    QuoteContext context = usersDeleting.get(user);
+                    long guildId = event.getGuild().getIdLong();
+
+                    /* Removed off the event thread. If the executor is full the
+                     * user is still asked to confirm, so they can say yes again */
+                    boolean submitted = quoteCommand.runOffGateway(channel, () -> {
+                        if (removeQuoteFromJSON(guildId, context)) {
+                            quoteCommand.getQuoteViewer().removeQuote(guildId, context);
+                            channel.sendMessage("Quote has been removed.").queue();
+                        }
+                        else {
+                            channel.sendMessage("Error: Removal failed.").queue();
+                        }
+                    });
+
+                    if (!submitted) {
+                        return;
                     }
                 }
                 else {
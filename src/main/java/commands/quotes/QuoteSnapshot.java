@@ -0,0 +1,435 @@
+package commands.quotes;
+
+import util.IO;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static botmilez.config.QUOTE_FILE_PREFIX;
+
+/**
+ * QuoteSnapshot: Reads and writes all quotes of a server in a compact binary
+ * format, which loads without any text parsing. The server's JSON quotes
+ * file is still read when there is no binary snapshot, and kept up to date
+ * as a readable export.
+ *
+ * Snapshots are read through a memory mapping, so each one is saved as a new
+ * version of the file rather than over the one that may still be mapped.
+ *
+ * Layout, all numbers big-endian:
+ *
+ * int     MAGIC
+ * int     VERSION
+ * int     position of the offset index in the file (since version 2)
+ * int     number of dictionary strings
+ *         each: string
+ * int     number of contexts
+ *         each: long id, int author (dictionary index), int number of quotes
+ *               each quote: int name (dictionary index), int year, string quote
+ * int     number of contexts (offset index, since version 2)
+ *         each: int position of the context in the file, long id, int newest year
+ *
+ * A string is an int byte length followed by that many UTF-8 bytes, and a
+ * length or dictionary index of -1 stands for null. A year of NO_YEAR means
+ * the quote has no year. Speaker and author names repeat a lot, so they are
+ * stored once in the dictionary and referred to by index.
+ *
+ * The offset index has fixed size entries, so the n-th context of a snapshot
+ * can be found and decoded through openIndex() without decoding the others.
+ */
+public class QuoteSnapshot {
+
+    /* Snapshots are saved as "<server id>_quotes-<version>.bin" */
+    private static final String SNAPSHOT_NAME = "_quotes";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+
+    /* "BMQS" */
+    private static final int MAGIC = 0x424D5153;
+    private static final int VERSION = 2;
+
+    /* Where the position of the offset index is stored in the file */
+    private static final int INDEX_POSITION_OFFSET = 8;
+
+    /* Bytes of one offset index entry: int position, long id, int year */
+    private static final int INDEX_ENTRY_SIZE = 16;
+
+    /* Fewest bytes a dictionary string, context and quote take, to check
+     * counts against what is left of the file before allocating for them */
+    private static final int STRING_MIN_SIZE = 4;
+    private static final int CONTEXT_MIN_SIZE = 16;
+    private static final int QUOTE_MIN_SIZE = 12;
+
+    private static final int NO_YEAR = Integer.MIN_VALUE;
+    private static final int NULL_REF = -1;
+
+
+    /**
+     * @param guildId id of the server
+     * @return path of the server's newest binary snapshot, which does not
+     *         exist if the server has none
+     */
+    public static String snapshotPath(long guildId) {
+        File latest = IO.latestVersion(QUOTE_FILE_PREFIX, guildId + SNAPSHOT_NAME, SNAPSHOT_SUFFIX);
+        return latest != null ? latest.getPath() : unversionedPath(guildId);
+    }
+
+
+    /**
+     * Saves quote contexts as a new version of a server's binary snapshot,
+     * then deletes the older versions that can be deleted.
+     *
+     * @param guildId id of the server
+     * @param contexts contexts to write, in order
+     * @return true if successful, false if not.
+     */
+    public static boolean save(long guildId, Collection<QuoteContext> contexts) {
+        String name = guildId + SNAPSHOT_NAME;
+        File snapshot = IO.nextVersion(QUOTE_FILE_PREFIX, name, SNAPSHOT_SUFFIX);
+        if (!write(snapshot.getPath(), contexts)) {
+            return false;
+        }
+        IO.deleteOlderVersions(snapshot, name, SNAPSHOT_SUFFIX);
+        new File(unversionedPath(guildId)).delete();
+        return true;
+    }
+
+
+    /**
+     * @return path snapshots were saved at before they had versions
+     */
+    private static String unversionedPath(long guildId) {
+        return QUOTE_FILE_PREFIX + guildId + SNAPSHOT_NAME + SNAPSHOT_SUFFIX;
+    }
+
+
+    /**
+     * Writes quote contexts as a binary snapshot, replacing the file atomically.
+     * The file must not be mapped.
+     *
+     * @param path file to write to
+     * @param contexts contexts to write, in order
+     * @return true if successful, false if not.
+     */
+    public static boolean write(String path, Collection<QuoteContext> contexts) {
+        /* Build the dictionary first, since it comes before the contexts */
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (QuoteContext context : contexts) {
+            addToDictionary(dictionary, context.getAuthor());
+            for (Quote quote : context.getQuotes()) {
+                addToDictionary(dictionary, quote.getName());
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int indexPosition;
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(0); /* Position of the offset index, filled in at the end */
+
+            out.writeInt(dictionary.size());
+            for (String entry : dictionary.keySet()) {
+                writeString(out, entry);
+            }
+
+            int[] positions = new int[contexts.size()];
+            int i = 0;
+
+            out.writeInt(contexts.size());
+            for (QuoteContext context : contexts) {
+                positions[i++] = out.size();
+                out.writeLong(context.getId());
+                out.writeInt(refOf(dictionary, context.getAuthor()));
+                out.writeInt(context.getQuotes().size());
+
+                for (Quote quote : context.getQuotes()) {
+                    out.writeInt(refOf(dictionary, quote.getName()));
+                    out.writeInt(quote.getYear() == null ? NO_YEAR : quote.getYear());
+                    writeString(out, quote.getQuote());
+                }
+            }
+
+            indexPosition = out.size();
+            out.writeInt(contexts.size());
+            i = 0;
+            for (QuoteContext context : contexts) {
+                out.writeInt(positions[i++]);
+                out.writeLong(context.getId());
+                out.writeInt(newestYear(context));
+            }
+        }
+        catch (IOException e) {
+            System.out.println(e.getLocalizedMessage());
+            return false;
+        }
+
+        byte[] data = bytes.toByteArray();
+        ByteBuffer.wrap(data).putInt(INDEX_POSITION_OFFSET, indexPosition);
+        return IO.writeBytes(data, path);
+    }
+
+
+    /**
+     * Reads a binary snapshot through a memory mapping of it.
+     *
+     * @param path file to read from
+     * @return the contexts in the snapshot in order, or null if it could not be read.
+     */
+    public static List<QuoteContext> read(String path) {
+        ByteBuffer buffer = IO.mapFile(path);
+        if (buffer == null) {
+            return null;
+        }
+
+        try {
+            int version = readHeader(path, buffer);
+            if (version == 0) {
+                return null;
+            }
+            if (version >= 2) {
+                buffer.getInt(); /* Position of the offset index, not needed here */
+            }
+            String[] dictionary = readDictionary(buffer);
+
+            int contextCount = checkCount(buffer.getInt(), buffer, CONTEXT_MIN_SIZE);
+            List<QuoteContext> contexts = new ArrayList<>(contextCount);
+            for (int i = 0; i < contextCount; i++) {
+                contexts.add(readContext(buffer, dictionary));
+            }
+            return contexts;
+        }
+        catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            System.out.println(path + " is cut off or damaged");
+            return null;
+        }
+    }
+
+
+    /**
+     * Opens a snapshot for reading single contexts by their position,
+     * without reading the rest of them. The file stays mapped for as long
+     * as the returned index is in use, and shares the page cache with other
+     * readers of it.
+     *
+     * @param path file to open
+     * @return the opened snapshot, or null if it could not be read or was
+     *         written before snapshots had an offset index.
+     */
+    public static Index openIndex(String path) {
+        ByteBuffer buffer = IO.mapFile(path);
+        if (buffer == null) {
+            return null;
+        }
+
+        try {
+            int version = readHeader(path, buffer);
+            if (version < 2) {
+                return null;
+            }
+            int indexPosition = buffer.getInt();
+            String[] dictionary = readDictionary(buffer);
+
+            int size = buffer.getInt(indexPosition);
+            if (size < 0 || indexPosition + 4 + (long)size * INDEX_ENTRY_SIZE > buffer.limit()) {
+                System.out.println(path + " is cut off or damaged");
+                return null;
+            }
+            return new Index(buffer, dictionary, indexPosition + 4, size);
+        }
+        catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            System.out.println(path + " is cut off or damaged");
+            return null;
+        }
+    }
+
+
+    /**
+     * An opened snapshot, giving the id and newest year of every context from
+     * the offset index and decoding a single context on request.
+     */
+    public static class Index {
+        private final ByteBuffer buffer;
+        private final String[] dictionary;
+        private final int entriesPosition;
+        private final int size;
+
+        private Index(ByteBuffer buffer, String[] dictionary, int entriesPosition, int size) {
+            this.buffer = buffer;
+            this.dictionary = dictionary;
+            this.entriesPosition = entriesPosition;
+            this.size = size;
+        }
+
+        /**
+         * @return number of contexts in the snapshot
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param n position of the context in the snapshot
+         * @return id of the context
+         */
+        public long idAt(int n) {
+            return buffer.getLong(entryOf(n) + 4);
+        }
+
+        /**
+         * @param n position of the context in the snapshot
+         * @return newest year of any quote of the context, or null if none has a year
+         */
+        public Integer yearAt(int n) {
+            int year = buffer.getInt(entryOf(n) + 12);
+            return year == NO_YEAR ? null : year;
+        }
+
+        /**
+         * Decodes a single context.
+         * @param n position of the context in the snapshot
+         * @return the context, or null if it is damaged
+         */
+        public QuoteContext contextAt(int n) {
+            int position = buffer.getInt(entryOf(n));
+            try {
+                /* Own view of the buffer, so reads from several threads don't share a position */
+                ByteBuffer view = buffer.duplicate();
+                view.position(position);
+                return readContext(view, dictionary);
+            }
+            catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+                System.out.println("Context " + n + " of a quote snapshot is damaged");
+                return null;
+            }
+        }
+
+        private int entryOf(int n) {
+            if (n < 0 || n >= size) {
+                throw new IndexOutOfBoundsException("context " + n + " of " + size);
+            }
+            return entriesPosition + n * INDEX_ENTRY_SIZE;
+        }
+    }
+
+
+    /**
+     * Checks the magic number and reads the version.
+     * @return the version, or 0 if the file is not a snapshot this can read
+     */
+    private static int readHeader(String path, ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC) {
+            System.out.println(path + " is not a quote snapshot");
+            return 0;
+        }
+        int version = buffer.getInt();
+        if (version < 1 || version > VERSION) {
+            System.out.println(path + " has unsupported snapshot version " + version);
+            return 0;
+        }
+        return version;
+    }
+
+
+    /**
+     * @param count count read from a snapshot
+     * @param minSize fewest bytes each of the counted items takes
+     * @return the count, if what is left of the buffer can hold that many items
+     * @throws IllegalArgumentException if it is negative or too large, i.e. damaged
+     */
+    private static int checkCount(int count, ByteBuffer buffer, int minSize) {
+        if (count < 0 || count > buffer.remaining() / minSize) {
+            throw new IllegalArgumentException("bad count " + count);
+        }
+        return count;
+    }
+
+
+    private static String[] readDictionary(ByteBuffer buffer) {
+        String[] dictionary = new String[checkCount(buffer.getInt(), buffer, STRING_MIN_SIZE)];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = readString(buffer);
+        }
+        return dictionary;
+    }
+
+
+    private static QuoteContext readContext(ByteBuffer buffer, String[] dictionary) {
+        long id = buffer.getLong();
+        String author = lookup(dictionary, buffer.getInt());
+        int quoteCount = checkCount(buffer.getInt(), buffer, QUOTE_MIN_SIZE);
+
+        List<Quote> quotes = new ArrayList<>(quoteCount);
+        for (int j = 0; j < quoteCount; j++) {
+            Quote quote = new Quote();
+            quote.setName(lookup(dictionary, buffer.getInt()));
+            int year = buffer.getInt();
+            quote.setYear(year == NO_YEAR ? null : Integer.toString(year));
+            quote.setQuote(readString(buffer));
+            quotes.add(quote);
+        }
+
+        QuoteContext context = new QuoteContext(quotes, author);
+        context.setId(id);
+        return context;
+    }
+
+
+    private static int newestYear(QuoteContext context) {
+        int newest = NO_YEAR;
+        for (Quote quote : context.getQuotes()) {
+            if (quote.getYear() != null && quote.getYear() > newest) {
+                newest = quote.getYear();
+            }
+        }
+        return newest;
+    }
+
+
+    private static void addToDictionary(Map<String, Integer> dictionary, String entry) {
+        if (entry != null && !dictionary.containsKey(entry)) {
+            dictionary.put(entry, dictionary.size());
+        }
+    }
+
+
+    private static int refOf(Map<String, Integer> dictionary, String entry) {
+        return entry == null ? NULL_REF : dictionary.get(entry);
+    }
+
+
+    private static String lookup(String[] dictionary, int ref) {
+        return ref == NULL_REF ? null : dictionary[ref];
+    }
+
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(NULL_REF);
+            return;
+        }
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NULL_REF) {
+            return null;
+        }
+        byte[] utf8 = new byte[checkCount(length, buffer, 1)];
+        buffer.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
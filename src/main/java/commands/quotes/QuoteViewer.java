@@ -1,8 +1,9 @@
 package commands.quotes;
 
+import commands.CommandMetrics;
+import commands.ComponentRouter;
 import util.EmbedPageBuilder;
-import util.IO;
-import net.dv8tion.jda.api.JDA;
+import util.LruCache;
 import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
@@ -13,15 +14,14 @@ import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.interactions.components.buttons.Button;
 import net.dv8tion.jda.api.interactions.components.selections.StringSelectMenu;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 
 import java.awt.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
-import static botmilez.config.QUOTE_FILE_PREFIX;
-import static botmilez.config.QUOTE_FILE_SUFFIX;
 import static util.EmbedPageBuilder.*;
 import static commands.quotes.QuoteIDs.*;
 
@@ -30,20 +30,31 @@ import static commands.quotes.QuoteIDs.*;
  * QuoteViewer class: A class that is responsible for the reading of JSON files
  * that have quotes stored in them, and methods that return quote requests to
  * a user that asked for them. Supports searching for quotes as well.
+ *
+ * Anything that may read quotes from disk runs on the quote command's
+ * executor rather than the JDA event thread.
  */
 public class QuoteViewer extends ListenerAdapter {
 
-    private String scrollId;
+    /* Scroll id of every quote embed sent by the viewer */
+    public static final String SCROLL_ID = "quoteview";
+
+    /* Limits of the quote and embed caches. Whatever is dropped is read again when needed */
+    private static final int MAX_CACHED_GUILDS = 64;
+    private static final long GUILD_IDLE_MILLIS = 30 * 60 * 1000;
+    private static final int MAX_CACHED_EMBEDS = 256;
+    private static final long EMBED_IDLE_MILLIS = 15 * 60 * 1000;
 
     /* serverId -> server's quotes */
-    private Map<Long, List<QuoteContext>> quotesArrays;
+    private LruCache<Long, GuildQuotes> quotesArrays;
+
+    /* serverId -> load of the server's quotes under way, completed once they are cached */
+    private Map<Long, CompletableFuture<GuildQuotes>> loading;
 
-    /* serverId -> if quotes have been modified since last update */
-    private Map<Long, Boolean> isModified;
-    /* messageId -> current embed page number */
-    private Map<Long, EmbedPageBuilder> pageEmbeds;
+    /* messageId -> embed sent in that message */
+    private LruCache<Long, EmbedPageBuilder> pageEmbeds;
 
-    /* User -> search terms */
+    /* User -> search terms. Only used on the JDA event thread */
     private Map<User, String> usersSearching;
 
     /* Limit to how many quotes can be displayed in an embed */
@@ -54,12 +65,13 @@ public class QuoteViewer extends ListenerAdapter {
     private QuoteCommand command;
 
     public QuoteViewer(QuoteCommand instance) {
-        quotesArrays = new HashMap<>();
-        isModified = new HashMap<>();
-        pageEmbeds = new HashMap<>();
+        quotesArrays = new LruCache<>(MAX_CACHED_GUILDS, GUILD_IDLE_MILLIS);
+        loading = new ConcurrentHashMap<>();
+        pageEmbeds = new LruCache<>(MAX_CACHED_EMBEDS, EMBED_IDLE_MILLIS);
+        CommandMetrics.registerStats("quote_guild_cache", quotesArrays::getStats);
+        CommandMetrics.registerStats("quote_embed_cache", pageEmbeds::getStats);
         usersSearching = new HashMap<>();
         command = instance;
-        scrollId = "quoteview";
     }
 
     /**
@@ -70,12 +82,11 @@ public class QuoteViewer extends ListenerAdapter {
     }
 
     /**
-     * Set this object as an event listener to the jda to listen for events
-     * @param jda JDA to add this object as a listener to
+     * Set this object to receive messages through the component router
      */
-    public void setListening(JDA jda) {
+    public void setListening() {
         isEventListener = true;
-        jda.addEventListener(this);
+        ComponentRouter.initialize().registerMessageHandler(this);
     }
 
     /**
@@ -97,81 +108,83 @@ public class QuoteViewer extends ListenerAdapter {
 
 
     /**
-     * Reads from a json file containing quotes and converts this file
-     * into a list of QuoteContext objects that will be ready for viewing by
-     * server members.
+     * Returns the loaded quotes of a server, loading them into the quote
+     * cache for viewing if they are not there. Once loaded, additions and
+     * deletions are applied to the loaded quotes directly through
+     * addQuote() and removeQuote(), so they are only loaded again if the
+     * server was dropped from the cache.
+     *
+     * Only one call loads the quotes of a server. Others made meanwhile wait
+     * for it to finish, while servers that are already loaded, or loaded by
+     * other calls, are not held up by it.
      *
-     * @param path JSON file location to read from
-     * @return a list of QuoteContext objects representing server quotes.
+     * @param guildId id of the server to load quotes from
+     * @return the server's quotes, or null if they could not be loaded
      */
-    public static List<QuoteContext> jsonToQuoteContext(String path) {
-        JSONArray contextArray = (JSONArray)IO.readJson(path);
-        List<QuoteContext> quoteContexts = new ArrayList<>();
-
-        for (Object contextElement : contextArray) {
-            QuoteContext context = new QuoteContext();
-
-            JSONObject contextObj = (JSONObject)contextElement;
-            String author = (String)contextObj.get("author");
-            context.setAuthor(author);
-            JSONArray quoteArray = (JSONArray)contextObj.get("context");
-
-            for (Object quoteElement : quoteArray) {
-                Quote quote = new Quote();
-                JSONObject quoteObj = (JSONObject)quoteElement;
-                quote.setName((String)quoteObj.get("name"));
-                quote.setQuote((String)quoteObj.get("quote"));
-                Long year = (Long)quoteObj.get("year");
-                if (year == null) {
-                    quote.setYear(null);
-                }
-                else {
-                    quote.setYear(Long.toString(year));
-                }
-                context.addQuoteToContext(quote);
-            }
-            quoteContexts.add(context);
+    private GuildQuotes updateQuotesArrays(long guildId) {
+        GuildQuotes quotes = quotesArrays.get(guildId);
+        if (quotes != null) {
+            return quotes;
         }
 
+        CompletableFuture<GuildQuotes> load = new CompletableFuture<>();
+        CompletableFuture<GuildQuotes> running = loading.putIfAbsent(guildId, load);
+        if (running != null) {
+            return running.join();
+        }
 
-        return quoteContexts;
-
+        try {
+            /* Loaded by another call between the check above and putIfAbsent */
+            quotes = quotesArrays.get(guildId);
+            if (quotes == null) {
+                List<QuoteContext> quoteContexts = QuoteJournal.load(guildId);
+                if (quoteContexts != null) {
+                    quotes = new GuildQuotes(quoteContexts);
+                    quotesArrays.put(guildId, quotes);
+                }
+            }
+            load.complete(quotes);
+            return quotes;
+        }
+        catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            loading.remove(guildId, load);
+        }
     }
 
 
     /**
-     * Checks if the quotes of a server have either not been updated since a
-     * previous addition or deletion, or have not been loaded at all. This
-     * method will load the up-to-date quotes into the quote array for viewing
-     * if needed.
+     * Applies a change to the loaded quotes of a server. If a load of the
+     * server is under way, the change is applied once it finishes instead,
+     * since the load may have read the quotes before the change was stored.
+     * Nothing is done if the server is not loaded.
      *
-     * @param guildId id of the server to load quotes from
-     * @return whether a needed update was successful or not
+     * @param guildId id of the server
+     * @param change change to apply
      */
-    private boolean updateQuotesArrays(long guildId) {
-        String path = QUOTE_FILE_PREFIX + guildId + QUOTE_FILE_SUFFIX;
-
-        /* If quotes for this guild are not loaded, load them */
-        if (!quotesArrays.containsKey(guildId)) {
-            List<QuoteContext> quoteContexts = jsonToQuoteContext(path);
-            if (quoteContexts == null) {
-                return false;
+    private void applyToLoaded(long guildId, Consumer<GuildQuotes> change) {
+        GuildQuotes quotes = quotesArrays.get(guildId);
+        if (quotes == null) {
+            CompletableFuture<GuildQuotes> load = loading.get(guildId);
+            if (load != null) {
+                load.thenAccept(loaded -> {
+                    if (loaded != null) {
+                        change.accept(loaded);
+                    }
+                });
+                return;
             }
-            quotesArrays.put(guildId, quoteContexts);
-            isModified.put(guildId, false);
-        }
 
-        /* If quotes of this server were modified, update */
-        if (isModified.get(guildId)) {
-            List<QuoteContext> quoteContexts = jsonToQuoteContext(path);
-            if (quoteContexts == null) {
-                return false;
-            }
-            quotesArrays.replace(guildId, quoteContexts);
-            isModified.replace(guildId, false);
+            /* A load is only taken off the map once its quotes were cached */
+            quotes = quotesArrays.get(guildId);
         }
 
-        return true;
+        if (quotes != null) {
+            change.accept(quotes);
+        }
     }
 
 
@@ -183,53 +196,84 @@ public class QuoteViewer extends ListenerAdapter {
      *
      * @param guildId id for server to load quotes from
      * @param channel channel to send message to
-     * @return true if successful non-empty quote loading, false if not
+     * @return the server's quotes if successful non-empty quote loading, null if not
      */
-    private boolean validateQuotesArrays(long guildId, MessageChannel channel) {
-        if (!updateQuotesArrays(guildId)) {
+    private GuildQuotes validateQuotesArrays(long guildId, MessageChannel channel) {
+        GuildQuotes quotes = updateQuotesArrays(guildId);
+        if (quotes == null) {
             channel.sendMessage("An error has occurred. Cannot load quotes!")
                     .queue();
-            return false;
+            return null;
         }
 
-        if (quotesArrays.get(guildId).isEmpty()) {
+        if (quotes.size() == 0) {
             channel.sendMessage("No quotes are stored in the bot!" +
                     "You can add more quotes by using the add option.").queue();
-            return false;
+            return null;
         }
 
-        return true;
+        return quotes;
     }
 
 
     /**
-     * Called by other methods to indicate the quotes of a server have been modified in some way,
-     * to indicate to this class that the quotes array needs to be re-loaded with the
-     * newly updated quotes.
+     * Called after a quote context was stored for a server, to add it to the
+     * server's loaded quotes. Nothing needs to be done if they are not loaded
+     * yet, since the context is then read along with the rest.
      *
-     * @param guildId id of the server that has had its quotes modified
+     * @param guildId id of the server the context was added to
+     * @param context the added context
      */
-    public void setAsModified(long guildId) {
-        isModified.replace(guildId, true);
+    public void addQuote(long guildId, QuoteContext context) {
+        /* Already there if it was stored before the server was loaded */
+        applyToLoaded(guildId, quotes -> quotes.add(context));
     }
 
 
     /**
-     * Sends a randomly selected quote belonging to the server
+     * Called after a quote context was removed from a server, to remove it
+     * from the server's loaded quotes.
+     *
+     * @param guildId id of the server the context was removed from
+     * @param context the removed context
+     */
+    public void removeQuote(long guildId, QuoteContext context) {
+        applyToLoaded(guildId, quotes -> quotes.remove(context));
+    }
+
+
+    /**
+     * Sends a randomly selected quote belonging to the server. The quote is
+     * picked straight from the server's snapshot when possible, so the other
+     * quotes don't need to be loaded.
+     *
      * @param guildId server id to load quotes from
      * @param channel channel in server to send message to
+     * @param mode how quotes are weighted
      */
-    public void getRandomQuote(long guildId, MessageChannel channel) {
+    public void getRandomQuote(long guildId, MessageChannel channel, RandomQuotePicker.Mode mode) {
 
-        if (!validateQuotesArrays(guildId, channel)) {
+        QuoteContext quoteContext = QuoteJournal.pickRandom(guildId, mode);
+        if (quoteContext != null) {
+            quoteContext.sendQuoteContext(channel);
             return;
         }
 
-        List<QuoteContext> quoteContexts = quotesArrays.get(guildId);
+        /* Not pickable from a snapshot yet, fall back to a uniform pick out of all quotes */
+        GuildQuotes quotes = validateQuotesArrays(guildId, channel);
+        if (quotes == null) {
+            return;
+        }
 
-        Random random = new Random();
-        int index = random.nextInt(quoteContexts.size());
-        QuoteContext quoteContext = quoteContexts.get(index);
+        synchronized (quotes) {
+            if (quotes.size() == 0) {
+                return;
+            }
+
+            Random random = new Random();
+            int index = random.nextInt(quotes.size());
+            quoteContext = quotes.get(index);
+        }
 
         quoteContext.sendQuoteContext(channel);
     }
@@ -245,11 +289,13 @@ public class QuoteViewer extends ListenerAdapter {
         long guildId = event.getGuild().getIdLong();
         MessageChannel channel = event.getChannel();
 
-        if (!validateQuotesArrays(guildId, channel)) {
+        GuildQuotes quotes = validateQuotesArrays(guildId, channel);
+        if (quotes == null) {
             return;
         }
 
-        List<QuoteContext> contexts = quotesArrays.get(guildId);
+        /* A copy, so the numbers shown stay the same if quotes are added meanwhile */
+        List<QuoteContext> contexts = quotes.all();
 
         if (isDeleting) {
             command.getQuoteRemover().setDeletionCandidates(event.getUser(), contexts);
@@ -261,7 +307,7 @@ public class QuoteViewer extends ListenerAdapter {
         }
 
         EmbedPageBuilder emBuilder = new EmbedPageBuilder(MAX_QUOTES_PER_EMBED, quoteFields,
-                isDeleting, scrollId);
+                isDeleting, SCROLL_ID);
         emBuilder.setTitle("All quotes");
         emBuilder.setColor(Color.YELLOW);
         emBuilder.setPageCounterPlacement(EmbedComponent.FOOTER);
@@ -281,9 +327,10 @@ public class QuoteViewer extends ListenerAdapter {
      * @param event event that triggered this method
      * @param contexts list of quotes contexts that matched the search term to be added to embed
      * @param searchTerm the search term entered by the user.
+     * @param searchBy search filter chosen by the user
      */
     public void initSearchEmbed(MessageReceivedEvent event, List<QuoteContext> contexts,
-                                String searchTerm) {
+                                String searchTerm, String searchBy) {
 
         List<MessageEmbed.Field> quoteFields = new ArrayList<>();
         for (QuoteContext context : contexts) {
@@ -304,10 +351,8 @@ public class QuoteViewer extends ListenerAdapter {
             command.getQuoteRemover().setDeletionCandidates(event.getAuthor(), contexts);
         }
 
-        String searchBy = usersSearching.get(event.getAuthor());
-
         EmbedPageBuilder emBuilder = new EmbedPageBuilder(MAX_QUOTES_PER_EMBED, quoteFields,
-                isDeleting, scrollId);
+                isDeleting, SCROLL_ID);
 
         if (searchBy.equals(SELECT_CHOICE_BY_SAID)) {
             emBuilder.setTitle("Search Results for term: \"" + searchTerm + "\"");
@@ -348,11 +393,22 @@ public class QuoteViewer extends ListenerAdapter {
         if (event.getComponentId().equals(SELECT_MENU_VIEW)) {
             if (event.getValues().get(0).equals(SELECT_CHOICE_RANDOM)) {
                 event.editMessage("Fetching a random quote..").setComponents().queue();
-                getRandomQuote(guildId, channel);
+                command.runOffGateway(channel,
+                        () -> getRandomQuote(guildId, channel, RandomQuotePicker.Mode.UNIFORM));
+            }
+            if (event.getValues().get(0).equals(SELECT_CHOICE_RANDOM_RECENT)) {
+                event.editMessage("Fetching a random recent quote..").setComponents().queue();
+                command.runOffGateway(channel,
+                        () -> getRandomQuote(guildId, channel, RandomQuotePicker.Mode.RECENT));
+            }
+            if (event.getValues().get(0).equals(SELECT_CHOICE_RANDOM_RARE)) {
+                event.editMessage("Fetching a random rarely seen quote..").setComponents().queue();
+                command.runOffGateway(channel,
+                        () -> getRandomQuote(guildId, channel, RandomQuotePicker.Mode.LEAST_SHOWN));
             }
             if (event.getValues().get(0).equals(SELECT_CHOICE_ALL)) {
                 event.editMessage("Fetching all quotes..").setComponents().queue();
-                initAllQuoteEmbed(event, false);
+                command.runOffGateway(channel, () -> initAllQuoteEmbed(event, false));
             }
             if (event.getValues().get(0).equals(SELECT_CHOICE_SEARCH)) {
                 event.editMessage("Select how you want to filter your search.").queue();
@@ -400,70 +456,73 @@ public class QuoteViewer extends ListenerAdapter {
 
     @Override
     public void onButtonInteraction(ButtonInteractionEvent event) {
-        String id = event.getComponentId();
-        if (id.equals(BUTTON_NEXT_PAGE + id) || id.equals(BUTTON_PREVIOUS_PAGE + id) ||
-                id.equals(DELETE_EMBED + id)) {
-
-            long msgId = event.getMessage().getIdLong();
-            EmbedPageBuilder emBuilder = pageEmbeds.get(msgId);
+        long msgId = event.getMessage().getIdLong();
+        EmbedPageBuilder emBuilder = pageEmbeds.get(msgId);
+        if (emBuilder != null) {
             emBuilder.scroll(event);
             if (emBuilder.isErased()) {
                 pageEmbeds.remove(msgId);
             }
         }
+        else {
+            event.reply("This list has expired. Please use the command again to see it.")
+                    .setEphemeral(true).queue();
+        }
 
     }
 
 
-    @Override
-    public void onMessageReceived(MessageReceivedEvent event) {
-        User user = event.getAuthor();
+    /**
+     * Searches the quotes of the server a search term was sent in, and sends
+     * the results.
+     *
+     * @param event event of the message with the search term
+     * @param searchBy search filter chosen by the user
+     * @param searchTerm the search term, in lowercase
+     */
+    private void search(MessageReceivedEvent event, String searchBy, String searchTerm) {
+        List<QuoteContext> matches = new ArrayList<>();
 
-        if (!user.isBot() && usersSearching.containsKey(user)) {
-            command.getQuoteRemover().addToAcknowledgedMessage(event.getMessageIdLong());
-            String searchBy = usersSearching.get(user);
-            String searchTerm = event.getMessage().getContentRaw().toLowerCase();
-            List<QuoteContext> matches = new ArrayList<>();
+        GuildQuotes quotes = validateQuotesArrays(event.getGuild().getIdLong(), event.getChannel());
+        if (quotes == null) {
+            return;
+        }
 
-            if (!validateQuotesArrays(event.getGuild().getIdLong(), event.getChannel())) {
-                return;
+        QuoteIndex index = quotes.index;
+
+        if (searchBy.equals(SELECT_CHOICE_BY_SAID)) {
+            matches = index.search(QuoteIndex.Field.SAID, searchTerm);
+        }
+        else if (searchBy.equals(SELECT_CHOICE_BY_SPEAKER)) {
+            matches = index.search(QuoteIndex.Field.SPEAKER, searchTerm);
+        }
+        else if (searchBy.equals(SELECT_CHOICE_BY_AUTHOR)) {
+            matches = index.search(QuoteIndex.Field.AUTHOR, searchTerm);
+        }
+        else if (searchBy.equals(SELECT_CHOICE_BY_YEAR)) {
+            Integer year;
+            try {
+                year = Integer.parseInt(searchTerm.trim());
             }
-            List<QuoteContext> contexts = quotesArrays.get(event.getGuild().getIdLong());
+            catch(NumberFormatException e) {
+                year = null;
+            }
+            matches = index.searchYear(year);
+        }
 
+        initSearchEmbed(event, matches, searchTerm, searchBy);
+    }
 
-            for (QuoteContext context : contexts) {
-                for (Quote quote : context.getQuotes()) {
-                    if (searchBy.equals(SELECT_CHOICE_BY_SAID) && !matches.contains(context) &&
-                            quote.getQuote().toLowerCase().contains(searchTerm)) {
-                        matches.add(context);
-                    }
-                    else if (searchBy.equals(SELECT_CHOICE_BY_SPEAKER) && !matches.contains(context) &&
-                            quote.getName().toLowerCase().contains(searchTerm)) {
-                        matches.add(context);
-                    }
-                    else if (searchBy.equals(SELECT_CHOICE_BY_YEAR) && !matches.contains(context)) {
-                        try {
-                            int year = Integer.parseInt(searchTerm);
-                            if (quote.getYear() != null && quote.getYear() == year) {
-                                matches.add(context);
-                            }
-                        }
-                        catch(NumberFormatException e) {
-                            if (quote.getYear() == null) {
-                                matches.add(context);
-                            }
-                        }
-                    }
-                }
 
-                if (searchBy.equals(SELECT_CHOICE_BY_AUTHOR) &&
-                        context.getAuthor().toLowerCase().contains(searchTerm)) {
-                    matches.add(context);
-                }
-            }
+    @Override
+    public void onMessageReceived(MessageReceivedEvent event) {
+        User user = event.getAuthor();
 
-            initSearchEmbed(event, matches, searchTerm);
-            usersSearching.remove(user);
+        if (!user.isBot() && usersSearching.containsKey(user)) {
+            command.getQuoteRemover().addToAcknowledgedMessage(event.getMessageIdLong());
+            String searchBy = usersSearching.remove(user);
+            String searchTerm = event.getMessage().getContentRaw().toLowerCase();
+            command.runOffGateway(event.getChannel(), () -> search(event, searchBy, searchTerm));
         }
 
     }
@@ -0,0 +1,250 @@
+package commands.quotes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * RandomQuotePicker: Picks random quote contexts of one server without
+ * loading all of them. Contexts in the binary snapshot are picked by position
+ * through its offset index and only the chosen one is decoded. Contexts added
+ * since the snapshot are held in memory, and contexts removed since the
+ * snapshot are skipped when picked.
+ *
+ * Weighted picks use rejection: a uniformly picked context is kept with a
+ * probability equal to its weight, otherwise another is picked. Weights are
+ * scaled so the most likely context has weight 1, which keeps the number of
+ * tries low unless the weights really are far apart. After MAX_TRIES the
+ * last candidate is kept regardless. If every try hit a removed context,
+ * one is picked uniformly out of those left by walking past the removed ones.
+ *
+ * Not thread safe, QuoteJournal only uses it while holding the server's lock.
+ */
+class RandomQuotePicker {
+
+    /**
+     * How contexts are weighted when picked
+     */
+    enum Mode {
+        UNIFORM, /* Every context equally likely */
+        RECENT, /* Contexts with newer years are up to RECENT_BIAS times as likely */
+        LEAST_SHOWN /* Contexts picked n times before are 1/(n+1) times as likely */
+    }
+
+    private static final int MAX_TRIES = 32;
+    private static final double RECENT_BIAS = 4.0;
+
+    /* Binary snapshot of the server, null if it has none */
+    private final QuoteSnapshot.Index snapshot;
+
+    /* Contexts added since the snapshot. Removal swaps in the last one */
+    private final List<QuoteContext> added;
+    private final Map<Long, Integer> addedPositions;
+
+    /* Ids of snapshot contexts removed since the snapshot */
+    private final Set<Long> removed;
+
+    /* Context id -> number of times picked since the bot started, and
+     * number of times -> how many contexts were picked that many times */
+    private final Map<Long, Integer> timesShown;
+    private final TreeMap<Integer, Integer> shownCounts;
+
+    /* Range of newest years over all contexts, for RECENT */
+    private int minYear = Integer.MAX_VALUE;
+    private int maxYear = Integer.MIN_VALUE;
+
+    private final Random random;
+
+    /**
+     * @param snapshot opened binary snapshot of the server, null if it has none
+     */
+    RandomQuotePicker(QuoteSnapshot.Index snapshot) {
+        this.snapshot = snapshot;
+        added = new ArrayList<>();
+        addedPositions = new HashMap<>();
+        removed = new HashSet<>();
+        timesShown = new HashMap<>();
+        shownCounts = new TreeMap<>();
+        random = new Random();
+
+        /* Only the fixed size index entries are read, no context is decoded */
+        if (snapshot != null) {
+            for (int i = 0; i < snapshot.size(); i++) {
+                includeYear(snapshot.yearAt(i));
+            }
+        }
+    }
+
+
+    /**
+     * Called for a context added after the snapshot was written
+     * @param context added context
+     */
+    void onAdded(QuoteContext context) {
+        if (addedPositions.containsKey(context.getId())) {
+            return;
+        }
+        addedPositions.put(context.getId(), added.size());
+        added.add(context);
+        includeYear(newestYear(context));
+    }
+
+
+    /**
+     * Called for a context removed after the snapshot was written
+     * @param contextId id of the removed context
+     */
+    void onRemoved(long contextId) {
+        Integer shown = timesShown.remove(contextId);
+        if (shown != null) {
+            uncount(shown);
+        }
+
+        Integer position = addedPositions.remove(contextId);
+        if (position == null) {
+            removed.add(contextId);
+            return;
+        }
+
+        QuoteContext last = added.remove(added.size() - 1);
+        if (position < added.size()) {
+            added.set(position, last);
+            addedPositions.put(last.getId(), position);
+        }
+    }
+
+
+    /**
+     * Picks a random context.
+     *
+     * @param mode how contexts are weighted
+     * @return the picked context, or null if there are none left to pick or
+     *         the picked one is damaged
+     */
+    QuoteContext pick(Mode mode) {
+        int snapshotSize = snapshot == null ? 0 : snapshot.size();
+        int total = snapshotSize + added.size();
+
+        int candidate = -1;
+        for (int tries = 0; tries < MAX_TRIES && total > 0; tries++) {
+            int n = random.nextInt(total);
+            long id = n < snapshotSize ? snapshot.idAt(n) : added.get(n - snapshotSize).getId();
+            if (removed.contains(id)) {
+                continue;
+            }
+
+            candidate = n;
+            Integer year = n < snapshotSize ?
+                    snapshot.yearAt(n) : newestYear(added.get(n - snapshotSize));
+            if (random.nextDouble() < weightOf(mode, id, year)) {
+                break;
+            }
+        }
+
+        if (candidate == -1) {
+            candidate = pickLeft(snapshotSize);
+            if (candidate == -1) {
+                return null;
+            }
+        }
+
+        QuoteContext context = candidate < snapshotSize ?
+                snapshot.contextAt(candidate) : added.get(candidate - snapshotSize);
+        if (context == null) {
+            return null;
+        }
+        int shown = timesShown.merge(context.getId(), 1, Integer::sum);
+        if (shown > 1) {
+            uncount(shown - 1);
+        }
+        shownCounts.merge(shown, 1, Integer::sum);
+        return context;
+    }
+
+
+    /**
+     * Picks uniformly out of the contexts that were not removed, by walking
+     * past the removed ones.
+     *
+     * @return position of the context, or -1 if every context was removed
+     */
+    private int pickLeft(int snapshotSize) {
+        int left = added.size();
+        for (int n = 0; n < snapshotSize; n++) {
+            if (!removed.contains(snapshot.idAt(n))) {
+                left++;
+            }
+        }
+        if (left == 0) {
+            return -1;
+        }
+
+        int skip = random.nextInt(left);
+        for (int n = 0; n < snapshotSize; n++) {
+            if (!removed.contains(snapshot.idAt(n)) && skip-- == 0) {
+                return n;
+            }
+        }
+        return snapshotSize + skip;
+    }
+
+
+    private double weightOf(Mode mode, long id, Integer year) {
+        switch (mode) {
+            case RECENT:
+                if (year == null || maxYear <= minYear) {
+                    return 1 / RECENT_BIAS;
+                }
+                double age = (double)(maxYear - year) / (maxYear - minYear);
+                return (1 + (RECENT_BIAS - 1) * (1 - age)) / RECENT_BIAS;
+            case LEAST_SHOWN:
+                /* Scaled by the weight of the least shown context */
+                return (1.0 + leastShown()) / (1 + timesShown.getOrDefault(id, 0));
+            default:
+                return 1;
+        }
+    }
+
+
+    /**
+     * @return fewest times any context left was picked
+     */
+    private int leastShown() {
+        int left = (snapshot == null ? 0 : snapshot.size()) - removed.size() + added.size();
+        if (timesShown.size() < left || shownCounts.isEmpty()) {
+            return 0;
+        }
+        return shownCounts.firstKey();
+    }
+
+
+    private void uncount(int shown) {
+        if (shownCounts.merge(shown, -1, Integer::sum) == 0) {
+            shownCounts.remove(shown);
+        }
+    }
+
+
+    private void includeYear(Integer year) {
+        if (year != null) {
+            minYear = Math.min(minYear, year);
+            maxYear = Math.max(maxYear, year);
+        }
+    }
+
+
+    private static Integer newestYear(QuoteContext context) {
+        Integer newest = null;
+        for (Quote quote : context.getQuotes()) {
+            if (quote.getYear() != null && (newest == null || quote.getYear() > newest)) {
+                newest = quote.getYear();
+            }
+        }
+        return newest;
+    }
+}
@@ -1,5 +1,7 @@
 package commands.rng;
 
+import commands.CommandManager;
+import commands.ComponentRouter;
 import commands.IBotCommand;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.Permission;
@@ -15,8 +17,11 @@ import util.IO;
 import util.sentencegenerators.MarkovChain;
 
 import java.awt.*;
+import java.io.File;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * ===== RNG MESSAGE COMMAND =====
@@ -28,7 +33,6 @@ import java.util.List;
  *
  * //TODO: Ensure an empty channel is not used for training data
  * //TODO: Add another method of sentence-generation using syntactic rules
- * //TODO: "Proper" starts and ends to sentences being output.
  */
 public class RngMessageCommand extends ListenerAdapter implements IBotCommand {
 
@@ -37,15 +41,36 @@ public class RngMessageCommand extends ListenerAdapter implements IBotCommand {
 
     private final int ORDER = 2;
     private final int MAX_OUTPUT_SIZE = 30;
-    /* Guild ID -> (TextChannel -> All Words in channel) */
-    private Map<Long, Map<TextChannel, MarkovChain>> channelChains;
+    /* Guild ID -> (TextChannel -> All Words in channel), completed once every
+     * channel of the server was read */
+    private Map<Long, CompletableFuture<Map<TextChannel, MarkovChain>>> channelChains;
     private MarkovChain trainingChain;
     private final String TRAINING_PATH = "resources/sentencegenerators/training/";
 
+    /* Trained chains are saved here, and opened instead of training again */
+    private final String MODEL_PATH = "resources/sentencegenerators/models/";
+    private final String TRAINING_MODEL = "blogRaw";
+
+    /* Age after which a channel's model is trained again from its history */
+    private final long CHANNEL_MODEL_MAX_AGE_MILLIS = 24 * 60 * 60 * 1000;
+
     public RngMessageCommand() {
-        trainingChain = new MarkovChain(ORDER, TRAINING_PATH + "blogRaw.txt", MAX_OUTPUT_SIZE);
+        /* Trained again only if the training file changed since it was saved */
+        File trainingModel = MarkovChain.latestModel(MODEL_PATH, TRAINING_MODEL);
+        File trainingFile = new File(TRAINING_PATH + "blogRaw.txt");
+        if (trainingModel != null && trainingModel.lastModified() >= trainingFile.lastModified()) {
+            trainingChain = MarkovChain.open(trainingModel.getPath(), MAX_OUTPUT_SIZE);
+        }
+        if (trainingChain == null) {
+            trainingChain = new MarkovChain(ORDER, trainingFile.getPath(), MAX_OUTPUT_SIZE);
+            trainingChain.save(MODEL_PATH, TRAINING_MODEL);
+        }
+
+        channelChains = new ConcurrentHashMap<>();
 
-        channelChains = new HashMap<>();
+        ComponentRouter router = ComponentRouter.initialize();
+        router.register(MENU_SELECT_SENTENCE_RNG, this);
+        router.register(MENU_SELECT_CHANNEL, this);
 
         //options = new ArrayList<>();
         //options.add(
@@ -101,16 +126,26 @@ public class RngMessageCommand extends ListenerAdapter implements IBotCommand {
                 IPermissionHolder holder =
                         (IPermissionHolder) guild.getRolesByName("@everyone", true).toArray() [0];
 
-                storeTextChannelHistory(guildId, guild.getTextChannels(), holder);
+                /* Reading channel history blocks, so it is done on this command's
+                 * executor and the menu is edited once it is done */
+                event.deferEdit().queue();
+                boolean accepted = CommandManager.submit(getName(), () -> {
+                    Set<TextChannel> channelSet =
+                            storeTextChannelHistory(guildId, guild.getTextChannels(), holder).keySet();
+                    StringSelectMenu.Builder SSMBuilder = StringSelectMenu.create(MENU_SELECT_CHANNEL);
+                    for (TextChannel channel : channelSet) {
+                        SSMBuilder.addOption(channel.getName(), Long.toString(channel.getIdLong()),
+                                channel.getName());
+                    }
+
+                    event.getHook().editOriginal("From what channel?")
+                            .setActionRow(SSMBuilder.build()).queue();
+                });
 
-                Set<TextChannel> channelSet = channelChains.get(guildId).keySet();
-                StringSelectMenu.Builder SSMBuilder = StringSelectMenu.create(MENU_SELECT_CHANNEL);
-                for (TextChannel channel : channelSet) {
-                    SSMBuilder.addOption(channel.getName(), Long.toString(channel.getIdLong()),
-                            channel.getName());
+                if (!accepted) {
+                    event.getHook().editOriginal("I'm reading too many channels right now. " +
+                            "Please try again in a moment.").setComponents().queue();
                 }
-
-                event.editMessage("From what channel?").setActionRow(SSMBuilder.build()).queue();
             }
 
             if (event.getValues().get(0).equals(SELECT_TRAINING_FILE)) {
@@ -121,7 +156,14 @@ public class RngMessageCommand extends ListenerAdapter implements IBotCommand {
 
         /* On selecting a channel for training data */
         if (event.getComponentId().equals(MENU_SELECT_CHANNEL)) {
-            Map<TextChannel, MarkovChain> channelToChain = channelChains.get(guildId);
+            CompletableFuture<Map<TextChannel, MarkovChain>> chains = channelChains.get(guildId);
+            Map<TextChannel, MarkovChain> channelToChain = chains == null ? null : chains.getNow(null);
+            if (channelToChain == null) {
+                event.editMessage("The channels of this server are still being read. " +
+                        "Please try again in a moment.").setComponents().queue();
+                return;
+            }
+
             /* Will not remain null since a channel must have been selected */
             TextChannel selectedChannel = null;
 
@@ -196,16 +238,28 @@ public class RngMessageCommand extends ListenerAdapter implements IBotCommand {
      * If not done so already, extract all words from messages from each channel
      * and store them in the map. Only channels with the VIEW_CHANNEL permission are
      * considered, and messages that are sent by bots are ignored.
+     * The chain of each channel is saved, and opened instead of reading the
+     * channel again until it is a day old.
+     *
+     * Only one call reads the channels of a server. Others made meanwhile
+     * wait for it to finish, rather than reading them again.
      *
      * @param guildId id of the server in question
      * @param textChannels list of all text channels in the server
      * @param permissionHolder information about what channels have the VIEW_CHANNEL permission
+     * @return text channel -> its chain, for every channel that was read
      */
-    private void storeTextChannelHistory(long guildId, List<TextChannel> textChannels,
-                                         IPermissionHolder permissionHolder) {
+    private Map<TextChannel, MarkovChain> storeTextChannelHistory(long guildId, List<TextChannel> textChannels,
+                                                                  IPermissionHolder permissionHolder) {
 
-        if (!channelChains.containsKey(guildId)) {
-            channelChains.put(guildId, new HashMap<>());
+        CompletableFuture<Map<TextChannel, MarkovChain>> chains = new CompletableFuture<>();
+        CompletableFuture<Map<TextChannel, MarkovChain>> reading = channelChains.putIfAbsent(guildId, chains);
+        if (reading != null) {
+            return reading.join();
+        }
+
+        try {
+            Map<TextChannel, MarkovChain> guildChains = new HashMap<>();
 
             for (TextChannel channel : textChannels) {
                 boolean hasPermission = true;
@@ -218,20 +272,51 @@ public class RngMessageCommand extends ListenerAdapter implements IBotCommand {
                 }
 
                 if (hasPermission) {
-                    List<String> channelWords = new ArrayList<>();
+                    MarkovChain saved = openChannelModel(channel);
+                    if (saved != null) {
+                        guildChains.put(channel, saved);
+                        continue;
+                    }
+
+                    /* Each message is trained on its own, so sentences never
+                     * run from one message into the next */
+                    List<String> channelMessages = new ArrayList<>();
                     MessageHistory history = MessageHistory.getHistoryFromBeginning(channel).complete();
                     for (Message msg : history.getRetrievedHistory()) {
                         if (!msg.getAuthor().isBot()) {
-                            String[] msgWords = msg.getContentRaw().split("\\s");
-                            channelWords.addAll(Arrays.asList(msgWords));
+                            channelMessages.add(msg.getContentRaw());
                         }
                     }
-                    String[] wordsArray = channelWords.toArray(new String[channelWords.size()]);
-                    channelChains.get(guildId).put(
-                            channel, new MarkovChain(ORDER,wordsArray,MAX_OUTPUT_SIZE));
+                    MarkovChain chain = new MarkovChain(ORDER,channelMessages,MAX_OUTPUT_SIZE);
+                    chain.save(MODEL_PATH, channel.getId());
+                    guildChains.put(channel, chain);
                 }
             }
+
+            chains.complete(guildChains);
+            return guildChains;
+        }
+        catch (RuntimeException e) {
+            /* Read again by the next call, rather than failing it too */
+            channelChains.remove(guildId, chains);
+            chains.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+
+    /**
+     * @param channel text channel
+     * @return chain saved for the channel, or null if there is none or it is
+     *         too old to still reflect the channel
+     */
+    private MarkovChain openChannelModel(TextChannel channel) {
+        File model = MarkovChain.latestModel(MODEL_PATH, channel.getId());
+        if (model == null ||
+                System.currentTimeMillis() - model.lastModified() > CHANNEL_MODEL_MAX_AGE_MILLIS) {
+            return null;
         }
+        return MarkovChain.open(model.getPath(), MAX_OUTPUT_SIZE);
     }
 
 
@@ -1,5 +1,6 @@
 package commands.rng;
 
+import commands.ComponentRouter;
 import commands.IBotCommand;
 import mariokart.MKW;
 import mariokart.MKWCharacter;
@@ -27,6 +28,12 @@ public class RngMkwCommand extends ListenerAdapter implements IBotCommand {
     public RngMkwCommand() {
         userSelections = new HashMap<>();
         mkw = MKW.initialize();
+
+        ComponentRouter router = ComponentRouter.initialize();
+        router.register(SELECT_RANDOM, this);
+        router.register(MENU_SELECT_RANDOM_ENTITY, this);
+        router.register(MENU_SELECT_RANDOM_VEHICLE_TYPE, this);
+        router.register(MENU_SELECT_RANDOM_VEHICLE_DRIFT_TYPE, this);
     }
 
     @Override
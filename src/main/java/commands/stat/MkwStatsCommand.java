@@ -1,6 +1,7 @@
 package commands.stat;
 
 import mariokart.MKW;
+import commands.ComponentRouter;
 import commands.IBotCommand;
 import mariokart.MKWCharacter;
 import net.dv8tion.jda.api.EmbedBuilder;
@@ -25,6 +26,13 @@ public class MkwStatsCommand extends ListenerAdapter implements IBotCommand {
     private MKW mkw;
     public MkwStatsCommand() {
         mkw = MKW.initialize();
+
+        ComponentRouter router = ComponentRouter.initialize();
+        router.register(MENU_SELECT_STAT, this);
+        router.register(MENU_SELECT_VEHICLE_CLASS, this);
+        router.register(MENU_SELECT_CHARACTER_CLASS, this);
+        router.register(MENU_SELECT_VEHICLE, this);
+        router.register(MENU_SELECT_CHARACTER, this);
     }
 
     @Override
@@ -0,0 +1,246 @@
+package commands.trivia;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Checks messages against the accepted answers of one question. Answers are
+ * normalized once when the matcher is built, so checking a message takes one
+ * normalization and one hash lookup.
+ *
+ * Normalizing case-folds, strips accents, turns punctuation into spaces and
+ * collapses runs of whitespace, so "Pokémon!" matches "pokemon" and
+ * "Mr. T" matches "mr t". Answers and messages with symbols that carry
+ * meaning (e.g. "C++", "C#", "R&B"), or that normalize to very short keys,
+ * keep their symbols, so "C++" and "C#" stay different answers and neither
+ * is matched by "c".
+ *
+ * Optionally, messages within maxTypos edits (insertions, deletions or
+ * substitutions) of a long enough answer are accepted as well. Each such
+ * answer is compiled into a table of bit masks, one per character in it,
+ * and a message is run through it with Myers' bit-parallel algorithm,
+ * which simulates the answer's Levenshtein automaton a whole column at a
+ * time in linear time.
+ */
+public class AnswerMatcher {
+
+    /* Typos accepted for questions of trivias, unless a game chooses otherwise */
+    public static final int DEFAULT_TYPOS = 1;
+
+    /* Most typos a game may choose to accept */
+    public static final int MAX_TYPOS = 2;
+
+    /* Answers shorter than this are only matched exactly, since a typo or
+     * two turns short answers into other valid words too easily */
+    private static final int MIN_FUZZY_LENGTH = 6;
+
+    /* Longest answer that fits the bit masks */
+    private static final int MAX_FUZZY_LENGTH = 64;
+
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /* Symbols that are part of an answer rather than punctuation around it */
+    private static final Pattern SYMBOL = Pattern.compile("[\\p{Sm}\\p{Sc}\\p{So}#%&@*]");
+    private static final Pattern NON_WORD_OR_SYMBOL = Pattern.compile("[^\\p{L}\\p{N}\\p{Sm}\\p{Sc}\\p{So}#%&@*]+");
+
+    /* Keys shorter than this keep their symbols, so little is left to collide on */
+    private static final int MIN_KEY_LENGTH = 3;
+
+    /* Normalized answers */
+    private final Set<String> exact;
+
+    /* Compiled answers that typos are accepted for */
+    private final List<FuzzyAnswer> fuzzy;
+
+    private final int maxTypos;
+
+
+    /**
+     * @param answers accepted answers
+     * @param maxTypos edits a message may be away from an answer and still
+     *                 match it by default, or 0 to only accept exact matches
+     */
+    public AnswerMatcher(List<String> answers, int maxTypos) {
+        this.maxTypos = maxTypos;
+        exact = new HashSet<>();
+        fuzzy = new ArrayList<>();
+
+        if (answers == null) {
+            return;
+        }
+        for (String answer : answers) {
+            if (answer == null) {
+                continue;
+            }
+            String key = keyOf(answer);
+            exact.add(key);
+
+            /* Numbers must be exact, "1984" is not close enough to "1985".
+             * Compiled whatever maxTypos is, since a game may accept typos anyway */
+            if (key.length() >= MIN_FUZZY_LENGTH && key.length() <= MAX_FUZZY_LENGTH && !hasDigit(key)) {
+                fuzzy.add(new FuzzyAnswer(key));
+            }
+        }
+    }
+
+
+    /**
+     * @param message message of a player
+     * @return true if the message is one of the answers, or within the
+     *         default number of typos of one
+     */
+    public boolean matches(String message) {
+        return matches(message, maxTypos);
+    }
+
+
+    /**
+     * @param message message of a player
+     * @param maxTypos edits the message may be away from an answer and still
+     *                 match it, or 0 to only accept exact matches
+     * @return true if the message is one of the answers, or close enough to one
+     */
+    public boolean matches(String message, int maxTypos) {
+        if (message == null) {
+            return false;
+        }
+        String key = keyOf(message);
+        if (exact.contains(key)) {
+            return true;
+        }
+        if (key.isEmpty() || maxTypos <= 0) {
+            return false;
+        }
+
+        for (FuzzyAnswer answer : fuzzy) {
+            if (answer.distanceTo(key, maxTypos) <= maxTypos) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * @param text text to normalize
+     * @return text case-folded, without accents, and with all punctuation and
+     *         whitespace between words collapsed into single spaces
+     */
+    public static String normalize(String text) {
+        String stripped = ACCENTS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return NON_WORD.matcher(fold(stripped)).replaceAll(" ").trim();
+    }
+
+
+    /**
+     * @return key answers and messages are compared by: the normalized text,
+     *         or with its symbols kept if it had any or would be very short,
+     *         or the text as typed if it is only punctuation
+     */
+    private static String keyOf(String text) {
+        String normalized = normalize(text);
+        if (normalized.length() >= MIN_KEY_LENGTH && !SYMBOL.matcher(text).find()) {
+            return normalized;
+        }
+
+        String stripped = ACCENTS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        String withSymbols = NON_WORD_OR_SYMBOL.matcher(fold(stripped)).replaceAll(" ").trim();
+        return withSymbols.isEmpty() ? fold(text) : withSymbols;
+    }
+
+
+    private static String fold(String text) {
+        return text.trim().toLowerCase(Locale.ROOT);
+    }
+
+
+    private static boolean hasDigit(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isDigit(text.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * An answer compiled for Myers' algorithm: for each character, a mask with
+     * the bits set at the positions the character appears in the answer.
+     */
+    private static class FuzzyAnswer {
+        private final int length;
+        private final Map<Character, Long> masks;
+
+        FuzzyAnswer(String answer) {
+            length = answer.length();
+            Map<Character, Long> compiled = new HashMap<>();
+            for (int i = 0; i < length; i++) {
+                compiled.merge(answer.charAt(i), 1L << i, (a, b) -> a | b);
+            }
+            masks = Collections.unmodifiableMap(compiled);
+        }
+
+
+        /**
+         * @param text normalized message
+         * @param bound distance beyond which the exact value does not matter
+         * @return edit distance between the answer and text, or some number
+         *         above bound if it is more than bound
+         */
+        int distanceTo(String text, int bound) {
+            /* Every character of difference in length takes an edit */
+            if (Math.abs(text.length() - length) > bound) {
+                return bound + 1;
+            }
+
+            /* Column j of the edit distance table between the answer (rows)
+             * and text (columns), kept as bit vectors of vertical deltas:
+             * plus has bit i set where row i+1 is one more than row i,
+             * minus where it is one less. */
+            long plus = length == 64 ? -1L : (1L << length) - 1;
+            long minus = 0;
+            long last = 1L << (length - 1);
+            int score = length;
+
+            for (int j = 0; j < text.length(); j++) {
+                Long found = masks.get(text.charAt(j));
+                long eq = found == null ? 0 : found;
+
+                long xv = eq | minus;
+                long xh = (((eq & plus) + plus) ^ plus) | eq;
+                long hPlus = minus | ~(xh | plus);
+                long hMinus = plus & xh;
+
+                if ((hPlus & last) != 0) {
+                    score++;
+                }
+                else if ((hMinus & last) != 0) {
+                    score--;
+                }
+
+                /* Shifting in a 1 makes row 0 count up with every column, so
+                 * the whole text is compared rather than searched in */
+                hPlus = (hPlus << 1) | 1;
+                hMinus = hMinus << 1;
+                plus = hMinus | ~(xv | hPlus);
+                minus = hPlus & xv;
+
+                /* The score can drop by at most one per column left */
+                if (score - (text.length() - j - 1) > bound) {
+                    return bound + 1;
+                }
+            }
+            return score;
+        }
+    }
+}
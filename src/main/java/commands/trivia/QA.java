@@ -14,6 +14,9 @@ public class QA  {
     private long id;
     private String question;
     private List<String> answers;
+
+    /* answers, normalized ahead of time for checking players' messages */
+    private AnswerMatcher matcher;
     private long points;
     private boolean was_asked;
     private String imgURL;
@@ -21,7 +24,7 @@ public class QA  {
     public QA(long id, String ques, List<String> ans, long pts, String url) {
         this.id = id;
         question = ques;
-        answers = ans;
+        setAnswer(ans);
         points = pts;
         imgURL = url;
         was_asked = false;
@@ -60,6 +63,7 @@ public class QA  {
      */
     public void setAnswer(List<String> answers) {
         this.answers = answers;
+        matcher = new AnswerMatcher(answers, AnswerMatcher.DEFAULT_TYPOS);
     }
 
     /**
@@ -106,6 +110,16 @@ public class QA  {
         return answers;
     }
 
+    /**
+     * @return matcher of the answers to the question, as of when they were last set
+     */
+    public AnswerMatcher getMatcher() {
+        if (matcher == null) {
+            matcher = new AnswerMatcher(answers, AnswerMatcher.DEFAULT_TYPOS);
+        }
+        return matcher;
+    }
+
     /**
      * @return how many points the question is worth
      */
@@ -0,0 +1,182 @@
+package commands.trivia;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The questions of one trivia game, drawn in random order without repeats
+ * and without changing the trivias they come from.
+ *
+ * Questions are shuffled lazily with Fisher-Yates: each draw swaps a random
+ * undrawn position with the last undrawn one, so drawing is O(1) and a deck
+ * takes no time to set up no matter how many questions it spans. Only the
+ * positions that were swapped are stored.
+ *
+ * By default every trivia in the deck is equally likely to be drawn from,
+ * then every question within it. With weighByQuestion every question is
+ * equally likely instead, so trivias with more questions come up more often.
+ */
+public class QuestionDeck {
+
+    private final List<TriviaType> trivias;
+    private final boolean weighByQuestion;
+    private final Random random;
+
+    /* weighByQuestion: one shuffle over the questions of all trivias, where
+     * trivia t holds positions firstPosition[t] until firstPosition[t+1] */
+    private final Shuffle allQuestions;
+    private final int[] firstPosition;
+
+    /* Otherwise: a shuffle per trivia, and the trivias with questions left */
+    private final List<Shuffle> shuffles;
+    private final List<Integer> triviasLeft;
+
+    private int remaining;
+
+
+    /**
+     * @param trivias trivias to draw questions from. They are not changed.
+     * @param weighByQuestion true to make every question equally likely,
+     *                        false to make every trivia equally likely
+     */
+    public QuestionDeck(List<TriviaType> trivias, boolean weighByQuestion) {
+        this.trivias = new ArrayList<>(trivias);
+        this.weighByQuestion = weighByQuestion;
+        random = new Random();
+
+        firstPosition = new int[this.trivias.size() + 1];
+        shuffles = new ArrayList<>();
+        triviasLeft = new ArrayList<>();
+        for (int t = 0; t < this.trivias.size(); t++) {
+            int size = this.trivias.get(t).getSize();
+            firstPosition[t + 1] = firstPosition[t] + size;
+            if (!weighByQuestion) {
+                shuffles.add(new Shuffle(size));
+                if (size > 0) {
+                    triviasLeft.add(t);
+                }
+            }
+        }
+        remaining = firstPosition[this.trivias.size()];
+        allQuestions = weighByQuestion ? new Shuffle(remaining) : null;
+    }
+
+
+    /**
+     * @return number of questions not drawn yet
+     */
+    public int remaining() {
+        return remaining;
+    }
+
+
+    /**
+     * Draws a question that was not drawn before.
+     * @return the question, or null if all were drawn
+     */
+    public Drawn draw() {
+        if (remaining == 0) {
+            return null;
+        }
+        remaining--;
+
+        if (weighByQuestion) {
+            int position = allQuestions.next(random);
+            int trivia = triviaAt(position);
+            return new Drawn(trivias.get(trivia), position - firstPosition[trivia]);
+        }
+
+        int pick = random.nextInt(triviasLeft.size());
+        int trivia = triviasLeft.get(pick);
+        Shuffle shuffle = shuffles.get(trivia);
+        int index = shuffle.next(random);
+
+        /* Swap-remove a trivia out of questions */
+        if (shuffle.left == 0) {
+            int last = triviasLeft.remove(triviasLeft.size() - 1);
+            if (pick < triviasLeft.size()) {
+                triviasLeft.set(pick, last);
+            }
+        }
+        return new Drawn(trivias.get(trivia), index);
+    }
+
+
+    /**
+     * @return index of the trivia holding a position of allQuestions
+     */
+    private int triviaAt(int position) {
+        /* Last trivia starting at or before the position, skipping empty ones */
+        int low = 0;
+        int high = trivias.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (firstPosition[mid] <= position) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * A question drawn from the deck
+     */
+    public static class Drawn {
+        private final TriviaType trivia;
+        private final QA question;
+
+        private Drawn(TriviaType trivia, int index) {
+            this.trivia = trivia;
+            question = trivia.getQuestions().get(index);
+        }
+
+        /**
+         * @return trivia the question belongs to
+         */
+        public TriviaType getTrivia() {
+            return trivia;
+        }
+
+        /**
+         * @return the question
+         */
+        public QA getQuestion() {
+            return question;
+        }
+    }
+
+
+    /**
+     * A lazy Fisher-Yates shuffle of 0 until size. Positions not in swapped
+     * still hold their own number.
+     */
+    private static class Shuffle {
+        private final Map<Integer, Integer> swapped = new HashMap<>();
+        private int left;
+
+        Shuffle(int size) {
+            left = size;
+        }
+
+        int next(Random random) {
+            int pick = random.nextInt(left);
+            int last = left - 1;
+            int value = swapped.getOrDefault(pick, pick);
+
+            /* Move the last undrawn value into the drawn one's place */
+            if (pick != last) {
+                swapped.put(pick, swapped.getOrDefault(last, last));
+            }
+            swapped.remove(last);
+            left--;
+            return value;
+        }
+    }
+}
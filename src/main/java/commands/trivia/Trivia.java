@@ -1,5 +1,6 @@
 package commands.trivia;
 
+import commands.ComponentRouter;
 import commands.Stoppable;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.Message;
@@ -12,13 +13,17 @@ import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import util.IO;
 
-import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
-import java.io.File;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import static java.util.Comparator.reverseOrder;
@@ -27,18 +32,30 @@ import static java.util.Comparator.reverseOrder;
  * This class represents an instance of a currently-ongoing game of
  * trivia that was activated through the TriviaCommand.
  *
+ * Messages, timers and discord callbacks of a game all arrive on different
+ * threads. Each of them only hands an event to the game's lane, which runs
+ * them one at a time, so all state of a game has a single writer and needs no
+ * locks. Lanes are run by the TriviaScheduler, which also decides whether
+ * the bot can take on another game.
  */
 public class Trivia extends ListenerAdapter implements Stoppable {
 
-    /* Maximum allowed trivias being played on this bot at once */
-    private static final int MAX_TRIVIA_COUNT = 10;
-
-    /* Amount of currently active trivias */
-    private static int triviaCount = 0;
+    /**
+     * Stages of a game
+     */
+    private enum State {
+        STARTING, /* Created, first question not sent yet */
+        ASKING, /* A question is out and answers are taken */
+        BETWEEN_QUESTIONS, /* Question answered, waiting to send the next one */
+        OVER /* Stopped, every further event is ignored */
+    }
 
     /* List of trivia types that are used in this trivia instance */
     private final List<TriviaType> triviaTypes;
 
+    /* Questions of triviaTypes not asked yet, in random order */
+    private QuestionDeck deck;
+
     /* Maps of active players -> score in this trivia */
     private final Map<User, Long> playerToScore;
 
@@ -51,15 +68,15 @@ public class Trivia extends ListenerAdapter implements Stoppable {
     /* Time limit for each question (in seconds) before moving on to next */
     private final int questionTimeLimit;
 
+    /* Typos allowed in answers, 0 for exact answers */
+    private final int maxTypos;
+
     /* Message Channel of which this trivia is happening in */
     private final MessageChannel channel;
 
     /* ID of channel this trivia is happening in */
     private long channelId;
 
-    /* Path to the trivias */
-    private static final String path = "resources/trivia/";
-
     /* Total number of questions in this trivia */
     private int numTotalQuestions;
 
@@ -78,41 +95,55 @@ public class Trivia extends ListenerAdapter implements Stoppable {
     /* previous question embed that was sent */
     private Message questionMsg;
 
-    /*
-     * An array of size two that helps keep track of which question is
-     * currently active.
-     * index [0]: index of which trivia type in triviaTypes list
-     * index [1]: id of question within the trivia type
-     */
-    private int[] currentQuestionIndex;
+    /* Question currently active, and the trivia type it is from */
+    private TriviaType currentType;
+    private QA currentQuestion;
 
-    /* Timer that delays the next question being sent */
-    private Timer questionDelayTimer;
+    /* Timer thread shared by all trivia games. Its tasks only hand events to
+     * the lane of their game, so one thread keeps up with every game and the
+     * number of threads stays the same no matter how many games or players there are. */
+    private static final ScheduledThreadPoolExecutor timer = newTimer();
+
+    /* Pending task that sends the next question after a short delay */
+    private ScheduledFuture<?> questionDelayTimer;
 
     /* Main Question timer */
-    private Timer questionTimer;
+    private ScheduledFuture<?> questionTimer;
 
     /* Visual timer that the players see on display in an embed
      * to show how much time is left to answer a question
      */
-    private Timer visualCountdownTimer;
+    private ScheduledFuture<?> visualCountdownTimer;
+
+    /* Runs every event of this game one at a time, in order. Fields of the
+     * game are only read and written from here */
+    private final Executor lane;
 
-    /* True if the trivia is ready to receive user responses. Otherwise, ignores them.
-     * Used to prevent players from luckily guessing answers before a question is sent,
-     * since a small intentional delay is added between questions.
+    /* True once the scheduler admitted this game, so it is released when over */
+    private boolean admitted;
+
+    /* Current stage of the game. Answers are only taken while ASKING, which
+     * prevents players from luckily guessing answers before a question is sent,
+     * since a small intentional delay is added between questions, and only
+     * lets the first correct answer score.
      * Responses to end the trivia are still acknowledged.
      */
-    private boolean readyToReceiveMessages;
+    private State state;
+
+    /* Counts questions sent. Timer tasks and callbacks remember the question
+     * they were made for and do nothing once it changed, in case they fire
+     * just as they are cancelled */
+    private int questionGeneration;
 
     /*
      * Player cooldowns: When a player gets a question wrong, they
      * are added to this map and they cannot answer a question for a small amount
      * of time. To prevent guess spamming
      *
-     * Map: User -> Timer representing how many seconds of cooldown left
-     * If timer is null, then there is no cooldown.
+     * Map: User -> pending task that ends the cooldown
+     * If the task is null, then there is no cooldown.
      */
-    private Map<User, Timer> playerCooldowns;
+    private Map<User, ScheduledFuture<?>> playerCooldowns;
 
 
     /**
@@ -125,52 +156,67 @@ public class Trivia extends ListenerAdapter implements Stoppable {
      * @param maxPoints maximum amount of points a player can earn before winning
      * @param timeLimit amount of time in seconds before moving on to next question
      * @param channel MessageChannel this trivia is taking place in
+     * @param everyQuestionEqual true to give every question the same chance of being
+     *                           asked, false to give every trivia type the same chance
+     * @param typos typos allowed in long answers, 0 to only accept exact answers
      */
     public Trivia(String tag, int maxQ, int maxPoints, int timeLimit, MessageChannel channel,
-                  User user, TriviaCommand triviaCommand) {
+                  User user, boolean everyQuestionEqual, int typos, TriviaCommand triviaCommand) {
         this.tag = tag;
         maxQuestions = maxQ;
         winningScore = maxPoints;
         questionTimeLimit = timeLimit;
+        maxTypos = typos;
         this.channel = channel;
         channelId = channel.getIdLong();
         triviaTypes = new ArrayList<>();
         triviaNames = new ArrayList<>();
 
-        currentQuestionIndex = new int[2];
-        currentQuestionIndex[0] = -1;
-        currentQuestionIndex[1] = -1;
-
         numTotalQuestions = 0;
         numQuestionsAsked = 0;
 
+        lane = TriviaScheduler.initialize().laneFor(channelId);
+        admitted = false;
+        state = State.STARTING;
+        questionGeneration = 0;
+
         /* Initialize player scores and cooldowns */
         playerToScore = new HashMap<>();
         playerToScore.put(user, new Long(0));
         playerCooldowns = new HashMap<>();
         playerCooldowns.put(user, null);
 
-        triviaCount++;
         this.command = triviaCommand;
-        questionDelayTimer = new Timer();
 
         /* Based on the tag, load all questions for this trivia game */
         boolean allTrivias = (tag.equalsIgnoreCase("all")) ? true : false;
-        getTriviasMatchingTags(path, allTrivias);
-        getTriviasMatchingTags(path + "custom/", allTrivias);
+        getTriviasMatchingTags(allTrivias);
+        deck = new QuestionDeck(triviaTypes, everyQuestionEqual);
     }
 
 
     /**
      * Sets up the initial game of trivia. Checks if it is able to do so, then
-     * adds this instance of trivia as an event listener. Then it generates
+     * routes messages of this channel to this instance of trivia. Then it generates
      * and sends the first question.
      */
     public void start() {
+        lane.execute(this::begin);
+    }
+
 
-        channel.getJDA().addEventListener(this);
+    private void begin() {
 
-        if (Trivia.getTriviaCount() > MAX_TRIVIA_COUNT) {
+        ComponentRouter.initialize().registerChannel(channelId, this);
+
+        if (numTotalQuestions == 0) {
+            channel.sendMessage("A trivia by this name or tag does not exist, " +
+                    "or this server does not have permission to play this trivia. ").queue();
+            destroyInstance();
+            return;
+        }
+
+        if (!TriviaScheduler.initialize().tryAdmit(channelId)) {
             channel.sendMessage("There are currently too many ongoing " +
                             "trivia games being processed by this bot, perhaps in other servers" +
                             " as well. Please try again later.")
@@ -178,14 +224,11 @@ public class Trivia extends ListenerAdapter implements Stoppable {
             destroyInstance();
             return;
         }
+        admitted = true;
 
-        if (numTotalQuestions == 0) {
-            channel.sendMessage("A trivia by this name or tag does not exist, " +
-                    "or this server does not have permission to play this trivia. ").queue();
-            destroyInstance();
-            return;
+        for (String name : triviaNames) {
+            TriviaRegistry.initialize().recordPlayed(name);
         }
-
         sendNextQuestion();
     }
 
@@ -194,7 +237,7 @@ public class Trivia extends ListenerAdapter implements Stoppable {
      * @return how many trivia games are currently active in the bot.
      */
     public static int getTriviaCount() {
-        return triviaCount;
+        return TriviaScheduler.initialize().getActiveGames();
     }
 
 
@@ -267,6 +310,21 @@ public class Trivia extends ListenerAdapter implements Stoppable {
             return;
         }
 
+        lane.execute(() -> handleMessage(user, msg));
+    }
+
+
+    /**
+     * Handles a message of a player, on the game's lane
+     * @param user player who sent the message
+     * @param msg content of the message
+     */
+    private void handleMessage(User user, String msg) {
+
+        if (state == State.OVER) {
+            return;
+        }
+
         /* If player is in cooldown, ignore */
         if (playerCooldowns.containsKey(user) &&
                 playerCooldowns.get(user) != null) {
@@ -279,11 +337,11 @@ public class Trivia extends ListenerAdapter implements Stoppable {
         if (msg.equalsIgnoreCase(Stoppable.CANCEL)
         || msg.equalsIgnoreCase(Stoppable.END)
         || msg.equalsIgnoreCase(Stoppable.STOP)) {
-            stop(user, channel);
+            finish(channel);
             return;
         }
 
-        if (!readyToReceiveMessages) {
+        if (state != State.ASKING) {
             return;
         }
 
@@ -291,10 +349,11 @@ public class Trivia extends ListenerAdapter implements Stoppable {
         if (isCorrect(msg)) {
             addScoreTo(user);
             channel.sendMessage(getReplyUponCorrect(user)).queue();
-            readyToReceiveMessages = false;
-            questionTimer.cancel();
-            visualCountdownTimer.cancel();
-            questionDelayTimer.schedule(new NextQuestionTask(), 3000);
+            state = State.BETWEEN_QUESTIONS;
+            cancel(questionTimer);
+            cancel(visualCountdownTimer);
+            questionDelayTimer = timer.schedule(
+                    new NextQuestionTask(questionGeneration, State.BETWEEN_QUESTIONS), 3, TimeUnit.SECONDS);
         }
 
         /*
@@ -302,16 +361,11 @@ public class Trivia extends ListenerAdapter implements Stoppable {
          * do not already have one.
          */
         else {
-            if (!playerCooldowns.containsKey(user)) {
-                playerCooldowns.put(user, null);
-            }
-
             if (playerCooldowns.get(user) == null) {
-                Consumer<Message> callback = (botMsg) -> {
-                    Timer timer = new Timer();
-                    timer.schedule(new RemovePlayerCooldownTask(user, botMsg), 4000);
-                    playerCooldowns.put(user, timer);
-                };
+                RemovePlayerCooldownTask task = new RemovePlayerCooldownTask(user, questionGeneration);
+                playerCooldowns.put(user, timer.schedule(task, 4, TimeUnit.SECONDS));
+
+                Consumer<Message> callback = (botMsg) -> lane.execute(() -> task.msg = botMsg);
                 channel.sendMessage("Wrong, " + user.getName() + "! Now wait " +
                                 "4 seconds before you can answer again.")
                         .queue(callback);
@@ -325,13 +379,12 @@ public class Trivia extends ListenerAdapter implements Stoppable {
 
 
     /**
-     * Randomizes what the next question will be
+     * Draws what the next question will be
      */
-    private void generateQuestionSeed() {
-        Random random = new Random();
-        currentQuestionIndex[0] = random.nextInt(triviaTypes.size());
-        TriviaType type = triviaTypes.get(currentQuestionIndex[0]);
-        currentQuestionIndex[1] = random.nextInt(type.getSize());
+    private void drawNextQuestion() {
+        QuestionDeck.Drawn drawn = deck.draw();
+        currentType = drawn.getTrivia();
+        currentQuestion = drawn.getQuestion();
     }
 
 
@@ -341,8 +394,7 @@ public class Trivia extends ListenerAdapter implements Stoppable {
      * @return The current trivia question
      */
     private String getQuestion() {
-        TriviaType type = triviaTypes.get(currentQuestionIndex[0]);
-        return type.getQuestionAt(currentQuestionIndex[1]);
+        return currentQuestion.getQuestion();
     }
 
     /**
@@ -350,13 +402,13 @@ public class Trivia extends ListenerAdapter implements Stoppable {
      * Sets up a timer for the question as a time limit
      */
     private void sendNextQuestion() {
-        removeCurrentQuestion();
+        questionGeneration++;
+        int generation = questionGeneration;
 
-        generateQuestionSeed();
-        TriviaType type = triviaTypes.get(currentQuestionIndex[0]);
+        drawNextQuestion();
 
-        String fromMessage = "From trivia \"" + type.getName() + "\" made by " +
-                type.getAuthor();
+        String fromMessage = "From trivia \"" + currentType.getName() + "\" made by " +
+                currentType.getAuthor();
 
         EmbedBuilder builder = new EmbedBuilder();
         builder.setColor(Color.BLUE);
@@ -375,61 +427,52 @@ public class Trivia extends ListenerAdapter implements Stoppable {
                 false
         );
 
-        questionTimer = new Timer();
-        questionTimer.schedule(new NextQuestionTask(), questionTimeLimit * 1000);
+        questionTimer = timer.schedule(
+                new NextQuestionTask(generation, State.ASKING), questionTimeLimit, TimeUnit.SECONDS);
 
-        /* Callback so we can reference the embed later to countdown the timer */
-        Consumer<Message> callback = (msg) -> {
-            questionMsg = msg;
-            if (visualCountdownTimer != null) {
-                visualCountdownTimer.cancel();
+        /* Callback so we can reference the embed later to countdown the timer.
+         * Skipped if the question was already answered by the time it is sent */
+        Consumer<Message> callback = (msg) -> lane.execute(() -> {
+            if (state != State.ASKING || generation != questionGeneration) {
+                return;
             }
-            visualCountdownTimer = new Timer();
-            visualCountdownTimer.scheduleAtFixedRate(
-                    new TimerCountDownTask(questionTimeLimit),0, 1000);
-        };
+            questionMsg = msg;
+            cancel(visualCountdownTimer);
+            visualCountdownTimer = timer.scheduleAtFixedRate(
+                    new TimerCountDownTask(questionTimeLimit, generation), 0, 1, TimeUnit.SECONDS);
+        });
         channel.sendMessageEmbeds(builder.build()).queue(callback);
 
         /* Cancel any cooldowns users have for next question */
         for (User user : playerCooldowns.keySet()) {
             if (playerCooldowns.get(user) != null) {
-                playerCooldowns.get(user).cancel();
+                cancel(playerCooldowns.get(user));
                 playerCooldowns.replace(user, null);
             }
         }
 
         numQuestionsAsked++;
-        readyToReceiveMessages = true;
+        state = State.ASKING;
     }
 
     /**
      * Checks if the given answer by a user is correct.
      * It is correct if it matches any answer from the question's
-     * answer list.
+     * answer list, ignoring case, accents and punctuation, or is
+     * within the game's allowed typos of a long one.
      *
      * @param userAns answer that a user input
      * @return true if user's answer is correct, false if not.
      */
     private boolean isCorrect(String userAns) {
-        TriviaType type = triviaTypes.get(currentQuestionIndex[0]);
-        List<String> answers = type.getAnswersAt(currentQuestionIndex[1]);
-
-        for (String ans : answers) {
-            if (userAns.equalsIgnoreCase(ans)) {
-                return true;
-            }
-        }
-
-        return false;
+        return currentQuestion.getMatcher().matches(userAns, maxTypos);
     }
 
     /**
      * @return how many points current question is worth.
      */
     private long getPointsWorth() {
-        TriviaType type = triviaTypes.get(currentQuestionIndex[0]);
-        long pointsWorth = type.getPointsAt(currentQuestionIndex[1]);
-        return pointsWorth;
+        return currentQuestion.getPoints();
     }
 
 
@@ -437,9 +480,7 @@ public class Trivia extends ListenerAdapter implements Stoppable {
      * @return the image of the current question, or null if none
      */
     private String getImgUrl() {
-       TriviaType type = triviaTypes.get(currentQuestionIndex[0]);
-       String imgURL = type.getImgURLAt(currentQuestionIndex[1]);
-       return imgURL;
+       return currentQuestion.getImgURL();
     }
 
 
@@ -459,23 +500,6 @@ public class Trivia extends ListenerAdapter implements Stoppable {
     }
 
 
-    /** Removes current question to prevent duplicates. If the trivia type removed from
-     *  is now empty, remove it from the triviatype list. */
-    private void removeCurrentQuestion() {
-
-        /* Do nothing if current question has not been generated yet e.g. its the
-         * first question of the trivia
-         */
-        if (currentQuestionIndex[0] == -1 || currentQuestionIndex[1] == -1) {
-            return;
-        }
-
-        triviaTypes.get(currentQuestionIndex[0]).removeQuestion(currentQuestionIndex[1]);
-        if (triviaTypes.get(currentQuestionIndex[0]).getSize() == 0) {
-            triviaTypes.remove(currentQuestionIndex[0]);
-        }
-    }
-
 
 
     /**
@@ -488,7 +512,7 @@ public class Trivia extends ListenerAdapter implements Stoppable {
         int seed = random.nextInt(25);
 
         String userName = user.getName();
-        String triviaName = triviaTypes.get(currentQuestionIndex[0]).getName();
+        String triviaName = currentType.getName();
 
         switch (seed) {
             case 0:
@@ -602,84 +626,104 @@ public class Trivia extends ListenerAdapter implements Stoppable {
      */
     @Override
     public void stop(User user, MessageChannel channel) {
+        lane.execute(() -> finish(channel));
+    }
+
+
+    /**
+     * Stops the game on its lane, unless it is already over.
+     * @param channel where the event being ended is taking place
+     */
+    private void finish(MessageChannel channel) {
+        if (state == State.OVER) {
+            return;
+        }
         channel.sendMessage("Trivia is over! Here are the results: ").queue();
         channel.sendMessageEmbeds(getResults()).queue();
-        if (questionDelayTimer != null) {
-            questionDelayTimer.cancel();
-        }
-        if (questionTimer != null) {
-            questionTimer.cancel();
-        }
-        if (visualCountdownTimer != null) {
-            visualCountdownTimer.cancel();
+        cancel(questionDelayTimer);
+        cancel(questionTimer);
+        cancel(visualCountdownTimer);
+        for (ScheduledFuture<?> cooldown : playerCooldowns.values()) {
+            cancel(cooldown);
         }
 
         destroyInstance();
     }
 
 
+    /**
+     * Cancels a pending timer task, if there is one. A task that is already
+     * running is left to finish.
+     * @param task task to cancel, or null
+     */
+    private static void cancel(ScheduledFuture<?> task) {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+
+    private static ScheduledThreadPoolExecutor newTimer() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "trivia-timer");
+            thread.setDaemon(true);
+            return thread;
+        }) {
+            /* The executor keeps exceptions of tasks in their futures, which
+             * nothing looks at, so print them like a Timer thread would */
+            @Override
+            protected void afterExecute(Runnable task, Throwable thrown) {
+                if (task instanceof Future && ((Future<?>)task).isDone()) {
+                    try {
+                        ((Future<?>)task).get();
+                    }
+                    catch (ExecutionException e) {
+                        e.getCause().printStackTrace();
+                    }
+                    catch (CancellationException | InterruptedException ignored) {
+                    }
+                }
+            }
+        };
+        /* Cancelled tasks (e.g. the time limit of a question answered early)
+         * are dropped right away instead of waiting in the queue until due */
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+
 
     /**
      * Performs clean-up operations of this trivia instance after it is
      * no-longer needed. Removes this instance from total active triviaCounts,
-     * and removes this as a JDA event listener.
+     * and stops routing messages of its channel to it.
      */
     private void destroyInstance() {
-        triviaCount--;
-        channel.getJDA().removeEventListener(this);
+        state = State.OVER;
+        if (admitted) {
+            TriviaScheduler.initialize().release();
+            admitted = false;
+        }
+        ComponentRouter.initialize().unregisterChannel(channelId, this);
         command.removeChannelFromActive(channelId);
     }
 
 
     /**
-     * load appropriate trivias if they contain a matching tag or name
-     * Loop through all files in trivia directory to see if the user-chosen tag
-     * matches the trivia's tag or name. If so, add it to the trivia type list
-     * for this trivia instance if the server is allowed to view it.
+     * load appropriate trivias if they contain a matching tag or name, and
+     * the server is allowed to view them. Questions are drawn from a deck
+     * over them, so the trivias themselves are never changed.
      *
-     * @param path path to the trivias json files
      * @param allTrivias true if using the "all trivias" wildcard to load every trivia in server
      * */
-    private void getTriviasMatchingTags(String path, boolean allTrivias) {
-        final FileNameExtensionFilter extensionFilter =
-                new FileNameExtensionFilter("N/A", "json");
-        File tDir = new File(path);
-        for (File file : tDir.listFiles()) {
-            if (extensionFilter.accept(file) && file.isFile()) {
-                String fileName = file.getName();
-                TriviaType type = new TriviaType(path + fileName, channel.getJDA());
-                List<String> tags = type.getTags();
-                String trivName = type.getName();
-                List<String> ids = type.getServers();
-                boolean universal = type.isUniversal();
-                boolean addTrivia = true;
-
-                /* If all trivia wildcard is disabled & tags or name don't match current trivia,
-                 * don't add it.
-                 */
-                if (!allTrivias) {
-                    if (!tags.stream().anyMatch(tag::equalsIgnoreCase)
-                            && !tag.equalsIgnoreCase(trivName)) {
-                        addTrivia = false;
-                    }
-                }
-
-                /* If trivia is not universal and trivia is not allowed in this server, don't add */
-                if (!universal) {
-                    if (ids.isEmpty() || !ids.contains(((TextChannel)channel).getGuild().getId())) {
-                        addTrivia = false;
-                    }
-                }
-
-                if (addTrivia) {
-                    numTotalQuestions += type.getSize();
-                    if (type.getSize() > 0) {
-                        triviaTypes.add(type);
-                    }
-                    triviaNames.add(type.getName());
-                }
-
+    private void getTriviasMatchingTags(boolean allTrivias) {
+        String guildId = ((TextChannel)channel).getGuild().getId();
+        for (TriviaType type : TriviaRegistry.initialize().getMatching(allTrivias ? null : tag, guildId)) {
+            numTotalQuestions += type.getSize();
+            if (type.getSize() > 0) {
+                triviaTypes.add(type);
             }
+            triviaNames.add(type.getName());
         }
     }
 
@@ -691,100 +735,116 @@ public class Trivia extends ListenerAdapter implements Stoppable {
      * @return true if trivia exists, false if not
      */
     public static boolean triviaExists(String name, boolean customOnly) {
-
-        List<String> customFileNames = IO.getAllFileNamesIn(path + "custom/");
-
-        if (!customOnly) {
-            List<String> defaultFileNames = IO.getAllFileNamesIn(path);
-            for (String fileName : defaultFileNames) {
-                if (IO.removeExtensionFromName(fileName).equalsIgnoreCase(name)) {
-                    return true;
-                }
-            }
-        }
-
-        for (String fileName : customFileNames) {
-            if (IO.removeExtensionFromName(fileName).equalsIgnoreCase(name)) {
-                return true;
-            }
-        }
-
-        return false;
+        return TriviaRegistry.initialize().exists(name, customOnly);
     }
 
 
 
     /**
-     * A TimerTask class that sends a new question.
+     * A timer task that sends a new question, unless the game already moved
+     * past the question or the stage it was scheduled for. A question's time
+     * limit expects it to still be asked, and the delay after an answer
+     * expects to be between questions, so a time limit that fires while the
+     * answer is still queued does not cut the delay short.
      */
-    private class NextQuestionTask extends TimerTask {
+    private class NextQuestionTask implements Runnable {
+
+        /* Question this task was scheduled for, and the stage it expects the game to be in */
+        private final int generation;
+        private final State expected;
+
+        public NextQuestionTask(int generation, State expected) {
+            this.generation = generation;
+            this.expected = expected;
+        }
 
         public void run() {
-            //visualCountdownTimer.cancel();
+            lane.execute(() -> {
+                if (state != expected || generation != questionGeneration) {
+                    return;
+                }
 
-            /* Check if game over */
-            if (isOver()) {
-                stop(null, channel);
-                return;
-            }
-            sendNextQuestion();
+                /* Check if game over */
+                if (isOver()) {
+                    finish(channel);
+                    return;
+                }
+                sendNextQuestion();
+            });
         }
 
     }
 
 
     /**
-     * A TimerTask class that acts as a visual countdown on
+     * A timer task that acts as a visual countdown on
      * a question MessageEmbed.
      */
-    private class TimerCountDownTask extends TimerTask{
+    private class TimerCountDownTask implements Runnable {
 
         /* Time left in seconds */
         private long timeLeftSeconds;
 
-        public TimerCountDownTask(long timeLimit) {
+        /* Question this countdown is for */
+        private final int generation;
+
+        public TimerCountDownTask(long timeLimit, int generation) {
             timeLeftSeconds = timeLimit;
+            this.generation = generation;
         }
 
         public void run() {
-            if (timeLeftSeconds > 0) {
-                timeLeftSeconds--;
-                MessageEmbed embed = questionMsg.getEmbeds().get(0);
-                EmbedBuilder updatedEmbed = new EmbedBuilder();
-                updatedEmbed.copyFrom(embed);
-                updatedEmbed.setFooter(Long.toString(timeLeftSeconds));
-                List<MessageEmbed> embeds = new ArrayList<>();
-                embeds.add(updatedEmbed.build());
-
-                questionMsg.editMessageEmbeds(embeds).queue();
-            }
+            lane.execute(() -> {
+                if (state != State.ASKING || generation != questionGeneration) {
+                    return;
+                }
+                if (timeLeftSeconds > 0) {
+                    timeLeftSeconds--;
+                    MessageEmbed embed = questionMsg.getEmbeds().get(0);
+                    EmbedBuilder updatedEmbed = new EmbedBuilder();
+                    updatedEmbed.copyFrom(embed);
+                    updatedEmbed.setFooter(Long.toString(timeLeftSeconds));
+                    List<MessageEmbed> embeds = new ArrayList<>();
+                    embeds.add(updatedEmbed.build());
+
+                    questionMsg.editMessageEmbeds(embeds).queue();
+                }
+            });
         }
 
     }
 
 
     /**
-     * A TimerTask that removes a player's answer cooldown after
-     * a certain amount of time has past.
+     * A timer task that removes a player's answer cooldown after
+     * a certain amount of time has past. Cooldowns are cleared anyway when
+     * the next question is sent, so it does nothing after that.
      */
-    private class RemovePlayerCooldownTask extends TimerTask {
+    private class RemovePlayerCooldownTask implements Runnable {
         private User user;
+
+        /* Message telling the player about the cooldown, once it was sent */
         private Message msg;
 
-        public RemovePlayerCooldownTask(User cooldownUser, Message botMsg) {
+        /* Question the cooldown was given during */
+        private final int generation;
+
+        public RemovePlayerCooldownTask(User cooldownUser, int generation) {
             user = cooldownUser;
-            this.msg = botMsg;
+            this.generation = generation;
         }
 
         public void run() {
-            playerCooldowns.replace(user, null);
-            msg.editMessage(user.getName() + "'s cooldown is over!")
-                    .queue();
+            lane.execute(() -> {
+                if (state == State.OVER || generation != questionGeneration) {
+                    return;
+                }
+                playerCooldowns.replace(user, null);
+                if (msg != null) {
+                    msg.editMessage(user.getName() + "'s cooldown is over!")
+                            .queue();
+                }
+            });
         }
     }
-
-
-
-
-
 }
@@ -5,7 +5,6 @@ import commands.Stoppable;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
-import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 import net.dv8tion.jda.api.events.interaction.command.CommandAutoCompleteInteractionEvent;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.events.interaction.component.StringSelectInteractionEvent;
@@ -14,11 +13,11 @@ import net.dv8tion.jda.api.interactions.commands.Command;
 import net.dv8tion.jda.api.interactions.commands.OptionType;
 import net.dv8tion.jda.api.interactions.commands.build.OptionData;
 
-import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
-import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -52,13 +51,23 @@ public class TriviaCommand extends ListenerAdapter implements IBotCommand {
     /* Max time per question in seconds option */
     private final String OPTION_TRIVIA_SECONDS_PER_Q = "seconds_per_question";
 
-    /* Channels in which active trivia games are happening */
-    private final List<Long> activeTrivias;
+    /* Give every question the same chance instead of every trivia option */
+    private final String OPTION_TRIVIA_EVERY_QUESTION_EQUAL = "every_question_equal";
+
+    /* Typos allowed in long answers option, 0 for exact answers */
+    private final String OPTION_TRIVIA_TYPOS = "typos";
+
+    /* Channels in which active trivia games are happening. Games are started off
+     * the gateway thread and end on timer threads, so this must be thread-safe */
+    private final Set<Long> activeTrivias;
 
     public TriviaCommand() {
-        activeTrivias = new ArrayList<>();
+        activeTrivias = ConcurrentHashMap.newKeySet();
         options = new ArrayList<>();
 
+        /* Load every trivia now, rather than on the first game */
+        TriviaRegistry.initialize();
+
         options.add(
                 new OptionData(OptionType.STRING, OPTION_TRIVIA_NAME,
                         "tag to identify which trivias to load",
@@ -85,6 +94,19 @@ public class TriviaCommand extends ListenerAdapter implements IBotCommand {
                         .setMaxValue(30)
                         .setMinValue(5)
         );
+        options.add(
+                new OptionData(OptionType.BOOLEAN, OPTION_TRIVIA_EVERY_QUESTION_EQUAL,
+                        "Give every question the same chance, so bigger trivias come up more often",
+                        false, false)
+        );
+        options.add(
+                new OptionData(OptionType.INTEGER, OPTION_TRIVIA_TYPOS,
+                        "Typos allowed in long answers, 0 to only accept exact answers (default "
+                                + AnswerMatcher.DEFAULT_TYPOS + ")",
+                        false, false)
+                        .setMinValue(0)
+                        .setMaxValue(AnswerMatcher.MAX_TYPOS)
+        );
 
     }
 
@@ -107,19 +129,19 @@ public class TriviaCommand extends ListenerAdapter implements IBotCommand {
     @Override
     public void doAction(SlashCommandInteractionEvent event) {
 
-        if (activeTrivias.contains(event.getChannel().getIdLong())) {
-            event.reply("There is already an active ongoing trivia!" +
+        if (!activeTrivias.add(event.getChannel().getIdLong())) {
+            event.getHook().sendMessage("There is already an active ongoing trivia!" +
                     " Please wait until current on finishing in this channel")
                     .queue();
             return;
         }
 
-        activeTrivias.add(event.getChannel().getIdLong());
-
         String tag = event.getOption(OPTION_TRIVIA_NAME).getAsString();
         int maxQuestions = 15;
         int maxPoints = 25;
         int questionTime = 20;
+        boolean everyQuestionEqual = false;
+        int typos = AnswerMatcher.DEFAULT_TYPOS;
         if (event.getOption(OPTION_TRIVIA_MAX_QUESTIONS) != null) {
             maxQuestions = event.getOption(OPTION_TRIVIA_MAX_QUESTIONS).getAsInt();
         }
@@ -129,12 +151,18 @@ public class TriviaCommand extends ListenerAdapter implements IBotCommand {
         if (event.getOption(OPTION_TRIVIA_SECONDS_PER_Q) != null) {
             questionTime = event.getOption(OPTION_TRIVIA_SECONDS_PER_Q).getAsInt();
         }
+        if (event.getOption(OPTION_TRIVIA_EVERY_QUESTION_EQUAL) != null) {
+            everyQuestionEqual = event.getOption(OPTION_TRIVIA_EVERY_QUESTION_EQUAL).getAsBoolean();
+        }
+        if (event.getOption(OPTION_TRIVIA_TYPOS) != null) {
+            typos = event.getOption(OPTION_TRIVIA_TYPOS).getAsInt();
+        }
 
-        event.reply("Now preparing the trivia game...").queue();
+        event.getHook().sendMessage("Now preparing the trivia game...").queue();
 
         Trivia triviaInstance =
                 new Trivia(tag, maxQuestions, maxPoints, questionTime, event.getChannel(), event.getUser(),
-                        this);
+                        everyQuestionEqual, typos, this);
 
         triviaInstance.start();
 
@@ -156,16 +184,30 @@ public class TriviaCommand extends ListenerAdapter implements IBotCommand {
                         " in a game, enter a tag that identifies a multiple trivias that share that tag. " +
                         " For a very interesting game of trivia, you can load a mix of different questions types" +
                         " from any trivia that is available on the server you're playing in. To do this, " +
-                        " type ALL as the name." +
-                        "\n\n" +
-                        OPTION_TRIVIA_MAX_POINTS + ": optional. The maximum amount of points a player can" +
+                        " type ALL as the name.",
+                false
+        );
+
+        /* Separate field, since a field holds at most 1024 characters */
+        builder.addField(
+                "More options",
+                OPTION_TRIVIA_MAX_POINTS + ": optional. The maximum amount of points a player can" +
                         " earn before the trivia ends. The default is 30" +
                         "\n\n" +
                         OPTION_TRIVIA_MAX_QUESTIONS + ": optional. The maximum amount of questions that can " +
                         "be asked by the trivia. The default is 20 questions" +
+                        "\n\n" +
                         OPTION_TRIVIA_SECONDS_PER_Q + ": optional. The time limit in seconds before the next " +
                         "question is asked if no one is getting the current one correct. The default is " +
-                        "15 seconds.",
+                        "15 seconds." +
+                        "\n\n" +
+                        OPTION_TRIVIA_EVERY_QUESTION_EQUAL + ": optional. If true, every question has the same " +
+                        "chance of being asked, so trivias with more questions come up more often. By default " +
+                        "every trivia has the same chance instead." +
+                        "\n\n" +
+                        OPTION_TRIVIA_TYPOS + ": optional. How many typos (0 to " + AnswerMatcher.MAX_TYPOS +
+                        ") are allowed in long answers, 0 to only accept exact answers. The default is " +
+                        AnswerMatcher.DEFAULT_TYPOS + ".",
                 false
         );
 
@@ -224,48 +266,13 @@ public class TriviaCommand extends ListenerAdapter implements IBotCommand {
     public void onCommandAutoCompleteInteraction(CommandAutoCompleteInteractionEvent event) {
         if (event.getName().equals(getName()) &&
                 event.getFocusedOption().getName().equals(OPTION_TRIVIA_NAME)) {
-            List<String> autoComplete = getAutoCompleteOptions("resources/trivia/custom/", event.getChannel());
-            List<Command.Choice> options = autoComplete.stream()
-                    .filter(name -> name.startsWith(event.getFocusedOption().getValue()))
+            String guildId = ((TextChannel)event.getChannel()).getGuild().getId();
+            List<Command.Choice> options = TriviaRegistry.initialize()
+                    .suggestNames(event.getFocusedOption().getValue(), guildId, OptionData.MAX_CHOICES)
+                    .stream()
                     .map(name -> new Command.Choice(name, name)) // map the words to choices
                     .collect(Collectors.toList());
             event.replyChoices(options).queue();
         }
     }
-
-
-    private List<String> getAutoCompleteOptions(String path, MessageChannel channel) {
-
-        List<String> triviaNames = new ArrayList<>();
-
-        final FileNameExtensionFilter extensionFilter =
-                new FileNameExtensionFilter("N/A", "json");
-        File tDir = new File(path);
-        for (File file : tDir.listFiles()) {
-            if (extensionFilter.accept(file) && file.isFile()) {
-                String fileName = file.getName();
-                TriviaType type = new TriviaType(path + fileName, channel.getJDA());
-                String trivName = type.getName();
-                List<String> ids = type.getServers();
-                boolean universal = type.isUniversal();
-                boolean addTrivia = true;
-
-                /* If trivia is not universal and trivia is not allowed in this server, don't add */
-                if (!universal) {
-                    if (ids.isEmpty() || !ids.contains(((TextChannel)channel).getGuild().getId())) {
-                        addTrivia = false;
-                    }
-                }
-
-                if (addTrivia) {
-                    if (type.getSize() > 0) {
-                        triviaNames.add(trivName);
-                    }
-                }
-
-            }
-        }
-
-        return triviaNames;
-    }
 }
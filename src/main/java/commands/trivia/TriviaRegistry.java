@@ -0,0 +1,452 @@
+package commands.trivia;
+
+import util.IO;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A singleton holding every trivia of the bot, each loaded from its file
+ * once. Starting a game or listing trivias reads from here instead of
+ * parsing every trivia file again.
+ *
+ * The trivia directories are watched for changes, and only the files that
+ * changed are loaded again or dropped. The trivia editor also hands its
+ * changes over directly when saving, so they show up before the file is
+ * written.
+ *
+ * Loaded trivias are never changed once they are held here. Callers that
+ * change a trivia (e.g. a game removing questions it asked) get their own
+ * copy-on-write view through getAll().
+ */
+public class TriviaRegistry {
+
+    /* Directories holding the default & custom trivias */
+    public static final String DEFAULT_PATH = "resources/trivia/";
+    public static final String CUSTOM_PATH = DEFAULT_PATH + "custom/";
+
+    private static final String EXTENSION = ".json";
+
+    /* Single instance of this class to be created */
+    private static TriviaRegistry registryInstance = null;
+
+    /* Path of the file -> trivia loaded from it */
+    private final Map<Path, TriviaType> trivias;
+
+    /* Lists & indexes of the values of trivias. Replaced as a whole when a
+     * trivia changes */
+    private volatile Lookup lookup;
+
+    /* Case-folded trivia name -> number of games started with it since the bot started */
+    private final Map<String, LongAdder> plays;
+
+    /* Key of a watched directory -> the directory, to tell which one an event came from */
+    private final Map<WatchKey, Path> watchedDirs;
+
+    private TriviaRegistry() {
+        trivias = new ConcurrentHashMap<>();
+        watchedDirs = new ConcurrentHashMap<>();
+        plays = new ConcurrentHashMap<>();
+        lookup = new Lookup(Collections.emptyList(), Collections.emptyList());
+
+        loadDir(Paths.get(DEFAULT_PATH));
+        loadDir(Paths.get(CUSTOM_PATH));
+        rebuild();
+
+        startWatching();
+    }
+
+
+    public static synchronized TriviaRegistry initialize() {
+        if (registryInstance == null) {
+            registryInstance = new TriviaRegistry();
+        }
+        return registryInstance;
+    }
+
+
+    /**
+     * @return views of all trivias, default ones first. Changes made to a
+     *         view are not seen by the registry or by other views.
+     */
+    public List<TriviaType> getAll() {
+        return viewsOf(lookup.all);
+    }
+
+
+    /**
+     * Suggests names of custom trivias a server can play, for autocompleting
+     * a trivia name. Names are found by binary search in a sorted array, so
+     * only the names starting with the prefix are looked at.
+     *
+     * @param prefix start of the name, ignoring case
+     * @param guildId id of the server
+     * @param limit maximum number of names to return
+     * @return names of non-empty trivias starting with prefix that are universal
+     *         or allowed in the server, most played first.
+     */
+    public List<String> suggestNames(String prefix, String guildId, int limit) {
+        Lookup current = lookup;
+        String folded = fold(prefix);
+        Set<TriviaType> allowed = current.byGuild.getOrDefault(guildId, Collections.emptySet());
+
+        /* Least played of the best so far on top, to be replaced first */
+        Comparator<TriviaType> byPlays = Comparator
+                .comparingLong((TriviaType trivia) -> timesPlayed(trivia.getName()))
+                .thenComparing(trivia -> fold(trivia.getName()), Comparator.reverseOrder());
+        PriorityQueue<TriviaType> best = new PriorityQueue<>(limit + 1, byPlays);
+
+        int first = Arrays.binarySearch(current.sortedNames, folded);
+        if (first < 0) {
+            first = -first - 1;
+        }
+        for (int i = first; i < current.sortedNames.length && current.sortedNames[i].startsWith(folded); i++) {
+            TriviaType trivia = current.byName[i];
+            if ((trivia.isUniversal() || allowed.contains(trivia)) && trivia.getSize() > 0) {
+                best.add(trivia);
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        }
+
+        List<String> names = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            names.add(best.poll().getName());
+        }
+        Collections.reverse(names);
+        return names;
+    }
+
+
+    /**
+     * Counts a game being started with a trivia, to rank name suggestions
+     * @param name name of the trivia
+     */
+    public void recordPlayed(String name) {
+        if (name != null) {
+            plays.computeIfAbsent(fold(name), n -> new LongAdder()).increment();
+        }
+    }
+
+
+    private long timesPlayed(String name) {
+        LongAdder count = plays.get(fold(name));
+        return count == null ? 0 : count.sum();
+    }
+
+
+    /**
+     * Finds the trivias a server can play for a tag.
+     *
+     * @param tag tag or name of the trivias, ignoring case. Null for every trivia.
+     * @param guildId id of the server
+     * @return views of the trivias whose name or one of its tags is the given
+     *         tag, and that are universal or allowed in the server.
+     */
+    public List<TriviaType> getMatching(String tag, String guildId) {
+        Lookup current = lookup;
+        List<TriviaType> candidates = tag == null ?
+                current.all : current.byTerm.getOrDefault(fold(tag), Collections.emptyList());
+        Set<TriviaType> allowed = current.byGuild.getOrDefault(guildId, Collections.emptySet());
+
+        List<TriviaType> views = new ArrayList<>();
+        for (TriviaType trivia : candidates) {
+            if (trivia.isUniversal() || allowed.contains(trivia)) {
+                views.add(trivia.view());
+            }
+        }
+        return views;
+    }
+
+
+    private static List<TriviaType> viewsOf(List<TriviaType> trivias) {
+        List<TriviaType> views = new ArrayList<>(trivias.size());
+        for (TriviaType trivia : trivias) {
+            views.add(trivia.view());
+        }
+        return views;
+    }
+
+
+    /**
+     * @param name name of a trivia's file without extension, ignoring case
+     * @param customOnly true if only to consider custom trivias
+     * @return true if a trivia of that name exists, false if not
+     */
+    public boolean exists(String name, boolean customOnly) {
+        Path customDir = keyOf(CUSTOM_PATH);
+        for (Path path : trivias.keySet()) {
+            if (customOnly && !path.getParent().equals(customDir)) {
+                continue;
+            }
+            if (IO.removeExtensionFromName(path.getFileName().toString()).equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Replaces a trivia with a saved version of it, without waiting for its
+     * file to be written and seen by the watcher.
+     *
+     * @param path path of the trivia's file
+     * @param trivia saved trivia. It is copied, so the caller can keep changing it.
+     */
+    public void put(String path, TriviaType trivia) {
+        trivias.put(keyOf(path), new TriviaType(trivia, null));
+        rebuild();
+    }
+
+
+    /**
+     * Drops a trivia whose file was deleted, without waiting for the watcher.
+     * @param path path of the trivia's file
+     */
+    public void remove(String path) {
+        if (trivias.remove(keyOf(path)) != null) {
+            rebuild();
+        }
+    }
+
+
+    /**
+     * Loads every trivia file in a directory
+     * @param dir directory to load from
+     */
+    private void loadDir(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        for (String fileName : IO.getAllFileNamesIn(dir.toString())) {
+            if (fileName.endsWith(EXTENSION)) {
+                load(dir.resolve(fileName));
+            }
+        }
+    }
+
+
+    /**
+     * Loads a trivia file, replacing what was loaded from it before. If the
+     * file cannot be read (e.g. it is in the middle of a manual edit) the
+     * previous version is kept until the next change.
+     *
+     * @param file file to load
+     */
+    private void load(Path file) {
+        try {
+            trivias.put(keyOf(file.toString()), new TriviaType(file.toString(), null));
+        }
+        catch (RuntimeException e) {
+            System.out.println("Could not load trivia " + file + ": " + e.getLocalizedMessage());
+        }
+    }
+
+
+    /**
+     * Replaces the lists of trivias after trivias changed. Default trivias
+     * come first, each group in order of name.
+     */
+    private synchronized void rebuild() {
+        Path customDir = keyOf(CUSTOM_PATH);
+        List<TriviaType> defaults = new ArrayList<>();
+        List<TriviaType> customs = new ArrayList<>();
+        for (Map.Entry<Path, TriviaType> entry : trivias.entrySet()) {
+            if (entry.getKey().getParent().equals(customDir)) {
+                customs.add(entry.getValue());
+            }
+            else {
+                defaults.add(entry.getValue());
+            }
+        }
+
+        Comparator<TriviaType> byName = Comparator.comparing(
+                trivia -> String.valueOf(trivia.getName()), String.CASE_INSENSITIVE_ORDER);
+        defaults.sort(byName);
+        customs.sort(byName);
+
+        List<TriviaType> all = new ArrayList<>(defaults);
+        all.addAll(customs);
+        lookup = new Lookup(all, customs);
+    }
+
+
+    private static String fold(String term) {
+        return term.toLowerCase(Locale.ROOT);
+    }
+
+
+    /**
+     * All trivias at one point in time, along with indexes for finding them
+     * by tag, name and server. Never changed once built.
+     */
+    private static class Lookup {
+        /* Every trivia, default ones first */
+        final List<TriviaType> all;
+
+        /* Case-folded names of custom trivias in order, and the trivia of each.
+         * Trivias without a name are left out */
+        final String[] sortedNames;
+        final TriviaType[] byName;
+
+        /* Case-folded tag or name -> trivias having it, in the order of all */
+        final Map<String, List<TriviaType>> byTerm;
+
+        /* Server id -> trivias that are not universal but allowed in the server */
+        final Map<String, Set<TriviaType>> byGuild;
+
+        Lookup(List<TriviaType> all, List<TriviaType> custom) {
+            this.all = Collections.unmodifiableList(all);
+
+            List<TriviaType> named = new ArrayList<>();
+            for (TriviaType trivia : custom) {
+                if (trivia.getName() != null) {
+                    named.add(trivia);
+                }
+            }
+            named.sort(Comparator.comparing(trivia -> fold(trivia.getName())));
+            sortedNames = new String[named.size()];
+            byName = new TriviaType[named.size()];
+            for (int i = 0; i < named.size(); i++) {
+                sortedNames[i] = fold(named.get(i).getName());
+                byName[i] = named.get(i);
+            }
+            byTerm = new HashMap<>();
+            byGuild = new HashMap<>();
+
+            for (TriviaType trivia : all) {
+                /* A set first, so a trivia named the same as one of its tags is listed once */
+                Set<String> terms = new HashSet<>();
+                if (trivia.getName() != null) {
+                    terms.add(fold(trivia.getName()));
+                }
+                for (String tag : trivia.getTags()) {
+                    terms.add(fold(tag));
+                }
+                for (String term : terms) {
+                    byTerm.computeIfAbsent(term, t -> new ArrayList<>()).add(trivia);
+                }
+
+                if (!trivia.isUniversal()) {
+                    for (String guildId : trivia.getServers()) {
+                        /* Identity set, since trivias don't define equality */
+                        byGuild.computeIfAbsent(guildId,
+                                g -> Collections.newSetFromMap(new IdentityHashMap<>())).add(trivia);
+                    }
+                }
+            }
+        }
+    }
+
+
+    private static Path keyOf(String path) {
+        return Paths.get(path).toAbsolutePath().normalize();
+    }
+
+
+    /**
+     * Starts a background thread that loads trivia files again when they are
+     * created or changed, and drops them when deleted.
+     */
+    private void startWatching() {
+        WatchService watcher;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+        }
+        catch (IOException e) {
+            System.out.println("Not watching trivia files for changes: " + e.getLocalizedMessage());
+            return;
+        }
+
+        for (String dir : new String[] {DEFAULT_PATH, CUSTOM_PATH}) {
+            Path path = Paths.get(dir);
+            try {
+                WatchKey key = path.register(watcher,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirs.put(key, path);
+            }
+            catch (IOException e) {
+                System.out.println("Not watching " + dir + " for changes: " + e.getLocalizedMessage());
+            }
+        }
+
+        Thread thread = new Thread(() -> watch(watcher), "trivia-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    private void watch(WatchService watcher) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            }
+            catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path dir = watchedDirs.get(key);
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (dir == null) {
+                    continue;
+                }
+
+                /* Events were lost, so load the whole directory again */
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    trivias.keySet().removeIf(path -> path.getParent().equals(keyOf(dir.toString())));
+                    loadDir(dir);
+                    changed = true;
+                    continue;
+                }
+
+                Path file = dir.resolve((Path)event.context());
+                if (!file.toString().endsWith(EXTENSION)) {
+                    continue;
+                }
+
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    trivias.remove(keyOf(file.toString()));
+                }
+                else {
+                    load(file);
+                }
+                changed = true;
+            }
+
+            if (changed) {
+                rebuild();
+            }
+            if (!key.reset()) {
+                watchedDirs.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package commands.trivia;
+
+import commands.CommandMetrics;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A singleton that runs the events of every trivia game on a fixed set of
+ * threads, one per core. Games are sharded by channel id, and each shard runs
+ * its events one at a time in order, so all events of one game have a single
+ * writer while games on different shards run in parallel. Any number of
+ * games can share a shard, since a game only takes a thread while handling
+ * an event.
+ *
+ * New games are admitted based on measured load instead of a fixed maximum:
+ * each shard keeps track of how long events wait before they run, and a game
+ * is turned away while its shard lags behind by more than MAX_LAG_MILLIS.
+ */
+public class TriviaScheduler {
+
+    /* Lag of a shard at which new games are no longer started on it */
+    private static final long MAX_LAG_MILLIS = 250;
+
+    /* Time over which the measured lag of a shard fades out when it idles */
+    private static final long LAG_DECAY_MILLIS = 1000;
+
+    /* Single instance of this class to be created */
+    private static TriviaScheduler schedulerInstance = null;
+
+    private final Shard[] shards;
+
+    /* Number of games admitted and not yet released */
+    private final AtomicInteger activeGames;
+
+    /* Number of games turned away for lag */
+    private final AtomicInteger rejectedGames;
+
+    private TriviaScheduler() {
+        shards = new Shard[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+        }
+        activeGames = new AtomicInteger(0);
+        rejectedGames = new AtomicInteger(0);
+
+        CommandMetrics.registerStats("trivia_scheduler", this::getStats);
+    }
+
+
+    public static synchronized TriviaScheduler initialize() {
+        if (schedulerInstance == null) {
+            schedulerInstance = new TriviaScheduler();
+        }
+        return schedulerInstance;
+    }
+
+
+    /**
+     * @param channelId id of the channel a game is played in
+     * @return executor running events of games in that channel one at a time, in order
+     */
+    public Executor laneFor(long channelId) {
+        return shardOf(channelId);
+    }
+
+
+    /**
+     * Admits a new game in a channel if its shard keeps up with its events.
+     * Every admitted game must be released once over.
+     *
+     * @param channelId id of the channel the game is played in
+     * @return true if the game may start, false if the bot is too busy
+     */
+    public boolean tryAdmit(long channelId) {
+        if (shardOf(channelId).lagMillis() > MAX_LAG_MILLIS) {
+            rejectedGames.incrementAndGet();
+            return false;
+        }
+        activeGames.incrementAndGet();
+        return true;
+    }
+
+
+    /**
+     * Releases an admitted game that is over
+     */
+    public void release() {
+        activeGames.decrementAndGet();
+    }
+
+
+    /**
+     * @return number of games currently being played
+     */
+    public int getActiveGames() {
+        return activeGames.get();
+    }
+
+
+    /**
+     * @return number of active & rejected games, and the lag and queued events of each shard
+     */
+    public JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        stats.put("active_games", activeGames.get());
+        stats.put("rejected_games", rejectedGames.get());
+
+        JSONArray shardStats = new JSONArray();
+        for (Shard shard : shards) {
+            JSONObject shardObj = new JSONObject();
+            shardObj.put("lag_ms", shard.lagMillis());
+            shardObj.put("queued", shard.executor.getQueue().size());
+            shardStats.add(shardObj);
+        }
+        stats.put("shards", shardStats);
+        return stats;
+    }
+
+
+    private Shard shardOf(long channelId) {
+        /* Snowflake ids grow with time in their upper bits, so mix them first */
+        long mixed = channelId * 0x9E3779B97F4A7C15L;
+        return shards[(int)((mixed >>> 32) % shards.length)];
+    }
+
+
+    /**
+     * One worker thread with its queue of events, measuring how long events
+     * wait in the queue as a moving average.
+     */
+    private static class Shard implements Executor {
+
+        private final ThreadPoolExecutor executor;
+
+        /* Average wait of recent events in milliseconds, and when it was last
+         * updated. Only written by the shard's thread */
+        private volatile double averageWait = 0;
+        private volatile long lastUpdated = System.currentTimeMillis();
+
+        Shard(int number) {
+            executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, "trivia-shard-" + number);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+
+
+        @Override
+        public void execute(Runnable task) {
+            executor.execute(new Event(task));
+        }
+
+
+        /**
+         * @return how far behind the shard currently is, in milliseconds. The
+         *         average wait of recent events fades out while the shard
+         *         idles, and an event stuck in the queue counts right away.
+         */
+        long lagMillis() {
+            long now = System.currentTimeMillis();
+            double lag = decayed(now);
+
+            Runnable oldest = executor.getQueue().peek();
+            if (oldest instanceof Event) {
+                lag = Math.max(lag, now - ((Event)oldest).queuedAt);
+            }
+            return Math.round(lag);
+        }
+
+
+        private double decayed(long now) {
+            return averageWait * Math.exp(-(double)(now - lastUpdated) / LAG_DECAY_MILLIS);
+        }
+
+
+        /**
+         * An event of a game, remembering when it was queued
+         */
+        private class Event implements Runnable {
+            private final Runnable task;
+            private final long queuedAt;
+
+            Event(Runnable task) {
+                this.task = task;
+                queuedAt = System.currentTimeMillis();
+            }
+
+            @Override
+            public void run() {
+                long now = System.currentTimeMillis();
+                averageWait = decayed(now) * 0.8 + (now - queuedAt) * 0.2;
+                lastUpdated = now;
+
+                try {
+                    task.run();
+                }
+                catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
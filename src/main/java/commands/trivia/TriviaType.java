@@ -12,6 +12,7 @@ import java.awt.*;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -41,15 +42,28 @@ public class TriviaType {
 
     private List<QA> questions;
 
+    /* True while questions is shared with the trivia this is a view of,
+     * so it must be copied before it is changed */
+    private boolean sharedQuestions;
+
 
     /**
      * Initialize a trivia type object representing a type of
-     * question asked
+     * question asked. The file is streamed straight into this object
+     * without being built as a JSONObject first.
      *
      * @param path string representing path to read jsonObject from
      */
     public TriviaType(String path, JDA jda) {
-        this((JSONObject)IO.readJson(path), jda);
+        this(jda);
+
+        TriviaTypeReader reader = new TriviaTypeReader(this);
+        if (!IO.streamJson(path, reader)) {
+            throw new IllegalArgumentException("Could not read trivia at " + path);
+        }
+
+        questions.addAll(reader.getQuestions());
+        Collections.sort(questions, new QA.QAsorter());
     }
 
 
@@ -140,6 +154,42 @@ public class TriviaType {
 
 
 
+    /**
+     * Creates a copy-on-write view of this trivia. The view shares the
+     * questions of this trivia until either of them adds or removes one,
+     * which then changes a copy of its own. Tags, servers and editors are
+     * shared as well, and must be replaced through the setters rather than
+     * changed in place.
+     *
+     * @return the view
+     */
+    public TriviaType view() {
+        TriviaType view = new TriviaType(jda);
+        view.name = name;
+        view.author = author;
+        view.is_default = is_default;
+        view.all_servers = all_servers;
+        view.tags = tags;
+        view.servers = servers;
+        view.allowed_editors = allowed_editors;
+        view.questions = questions;
+        view.sharedQuestions = true;
+        sharedQuestions = true;
+        return view;
+    }
+
+
+    /**
+     * Copies the questions before they are changed, if they are shared with a view
+     */
+    private void ownQuestions() {
+        if (sharedQuestions) {
+            questions = new ArrayList<>(questions);
+            sharedQuestions = false;
+        }
+    }
+
+
     /**
      * Sets name of this trivia
      * @param name name of trivia
@@ -157,6 +207,14 @@ public class TriviaType {
     }
 
 
+    /**
+     *
+     * @param isDefault sets whether this is a default trivia (true) or a custom one (false)
+     */
+    public void setDefault(boolean isDefault) {
+        is_default = isDefault;
+    }
+
     /**
      *
      * @param universal sets whether this trivia is able to be viewed across all servers or not.
@@ -198,6 +256,7 @@ public class TriviaType {
      * @param qa question to add.
      */
     public void addQuestion(QA qa) {
+        ownQuestions();
         questions.add(qa);
         Collections.sort(questions, new QA.QAsorter());
     }
@@ -253,6 +312,14 @@ public class TriviaType {
         return questions.get(index).getAnswers();
     }
 
+    /**
+     * @param index index to retrieve from
+     * @return matcher of the answers at the current index
+     */
+    public AnswerMatcher getMatcherAt(int index) {
+        return questions.get(index).getMatcher();
+    }
+
     /**
      * @param index index to retrieve from
      * @return the amount of points the question is worth at current index
@@ -281,6 +348,7 @@ public class TriviaType {
      * @param index which index of questions to remove from
      */
     public void removeQuestion(int index) {
+        ownQuestions();
         questions.remove(index);
     }
 
@@ -303,6 +371,7 @@ public class TriviaType {
 
         System.out.println(indexToRemoveFrom);
         if (indexToRemoveFrom != -1) {
+            ownQuestions();
             questions.remove(questions.get((int)indexToRemoveFrom));
             return true;
         }
@@ -455,6 +524,33 @@ public class TriviaType {
      * @return true on success, false on an error
      */
     public boolean writeTrivia(String path) {
+        if (!IO.writeJson(toJson(), path + ".json")) {
+            return false;
+        }
+        TriviaRegistry.initialize().put(path + ".json", this);
+        return true;
+    }
+
+
+    /**
+     * Converts this triviaType into a JSONObject and queues it to be
+     * written as a JSON file at the specified path in the background.
+     * Used for edits to a trivia that already has a file.
+     *
+     * @param path name and directory of file to write back
+     * @return completed with true once the file is written, false if writing it failed
+     */
+    public CompletableFuture<Boolean> writeTriviaLater(String path) {
+        CompletableFuture<Boolean> written = IO.writeJsonLater(toJson(), path + ".json");
+        TriviaRegistry.initialize().put(path + ".json", this);
+        return written;
+    }
+
+
+    /**
+     * @return this triviaType in the JSON format it is stored in
+     */
+    private JSONObject toJson() {
 
         JSONObject trivObj = new JSONObject();
         trivObj.put("name", name);
@@ -492,8 +588,7 @@ public class TriviaType {
         }
         trivObj.put("qas", questions);
 
-        return IO.writeJson(trivObj, path + ".json");
-
+        return trivObj;
     }
 
 }
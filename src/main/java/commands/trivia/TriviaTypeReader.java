@@ -0,0 +1,123 @@
+package commands.trivia;
+
+import util.JsonStreamHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fills a trivia type straight from a stream of its trivia file. Questions
+ * are collected and handed over at the end, so they only need sorting once.
+ * See TriviaType for the fields of a trivia file.
+ */
+class TriviaTypeReader extends JsonStreamHandler {
+
+    /* Depths of the trivia object, and of a question object within the file */
+    private static final int TRIVIA_DEPTH = 1;
+    private static final int QA_DEPTH = 3;
+
+    private final TriviaType triviaType;
+    private final List<QA> questions = new ArrayList<>();
+
+    private QA qa;
+    private List<String> answers;
+
+    TriviaTypeReader(TriviaType triviaType) {
+        this.triviaType = triviaType;
+    }
+
+    /**
+     * @return all questions read, in the order of the file
+     */
+    List<QA> getQuestions() {
+        return questions;
+    }
+
+    @Override
+    protected void startObject(String key) {
+        if (depth() == QA_DEPTH) {
+            qa = new QA();
+        }
+    }
+
+    @Override
+    protected void endObject(String key) {
+        if (depth() == QA_DEPTH) {
+            questions.add(qa);
+            qa = null;
+        }
+    }
+
+    @Override
+    protected void startArray(String key) {
+        if (qa != null && "answer".equals(key)) {
+            answers = new ArrayList<>();
+        }
+    }
+
+    @Override
+    protected void endArray(String key) {
+        if (qa != null && "answer".equals(key)) {
+            qa.setAnswer(answers);
+            answers = null;
+        }
+    }
+
+    @Override
+    protected void value(String key, Object value) {
+        if (qa != null) {
+            qaValue(key, value);
+            return;
+        }
+
+        if (depth() == TRIVIA_DEPTH) {
+            if ("name".equals(key)) {
+                triviaType.setName((String)value);
+            }
+            else if ("author".equals(key)) {
+                triviaType.setAuthor((String)value);
+            }
+            else if ("is_default".equals(key)) {
+                triviaType.setDefault((Boolean)value);
+            }
+            else if ("all_servers".equals(key)) {
+                triviaType.setUniversal((Boolean)value);
+            }
+        }
+        else if ("tags".equals(key)) {
+            triviaType.getTags().add((String)value);
+        }
+        else if ("servers".equals(key)) {
+            triviaType.getServers().add((String)value);
+        }
+        else if ("allowed_editors".equals(key)) {
+            triviaType.getEditors().add((String)value);
+        }
+    }
+
+    private void qaValue(String key, Object value) {
+        if ("id".equals(key)) {
+            qa.setId((Long)value);
+        }
+        else if ("question".equals(key)) {
+            qa.setQuestion((String)value);
+        }
+        else if ("answer".equals(key)) {
+            if (answers != null) {
+                answers.add((String)value);
+            }
+            else {
+                /* A single answer not inside an array */
+                List<String> answer = new ArrayList<>();
+                answer.add((String)value);
+                qa.setAnswer(answer);
+            }
+        }
+        else if ("points".equals(key)) {
+            qa.setPoints((Long)value);
+        }
+        else if ("img".equals(key)) {
+            qa.setImgURL((String)value);
+        }
+    }
+}
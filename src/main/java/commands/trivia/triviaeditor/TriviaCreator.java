@@ -340,7 +340,7 @@ public class TriviaCreator {
                         " Thanks for making a trivia!").queue();
                 session.channel.sendMessageEmbeds(session.triviaType.asEmbed()).queue();
                 EmbedPageBuilder builder =  session.triviaType.asQuestionsEmbed(session.createScrollId);
-                session.idToPageBuilder.put(session.createScrollId, builder);
+                session.addPageBuilder(session.createScrollId, builder);
                 session.channel.sendMessageEmbeds(builder.build())
                         .setComponents().setActionRow(builder.getPageBuilderActionRow())
                         .queue();
@@ -1,7 +1,9 @@
 package commands.trivia.triviaeditor;
 
+import commands.ComponentRouter;
 import commands.Stoppable;
 import commands.trivia.QA;
+import commands.trivia.TriviaRegistry;
 import commands.trivia.TriviaType;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.entities.channel.concrete.PrivateChannel;
@@ -9,13 +11,8 @@ import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 import net.dv8tion.jda.api.events.interaction.component.ButtonInteractionEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 import util.EmbedPageBuilder;
-import util.IO;
 
-import javax.swing.filechooser.FileNameExtensionFilter;
-import java.io.File;
 import java.util.*;
 
 import static util.EmbedPageBuilder.*;
@@ -131,11 +128,10 @@ public class TriviaEditSession extends ListenerAdapter implements Stoppable {
                    channelId = privChannel.getId();
                    channel = privChannel;
                    TriviaEditorCommand.addToActiveUser(user.getId());
+                   ComponentRouter.initialize().registerChannel(privChannel.getIdLong(), this);
                    return privChannel.sendMessage(startStr);
                }
        ).queue();
-
-       user.getJDA().addEventListener(this);
    }
 
 
@@ -211,11 +207,30 @@ public class TriviaEditSession extends ListenerAdapter implements Stoppable {
     }
 
     public void destroySession() {
-        user.getJDA().removeEventListener(this);
+        ComponentRouter router = ComponentRouter.initialize();
+        if (channel != null) {
+            router.unregisterChannel(channel.getIdLong(), this);
+        }
+        for (String scrollId : idToPageBuilder.keySet()) {
+            router.unregisterPageBuilder(scrollId);
+        }
         TriviaEditorCommand.removeActiveUsers(user.getId());
     }
 
 
+    /**
+     * Keeps track of a scrollable embed sent during this session and routes
+     * its buttons to this session.
+     *
+     * @param scrollId id the embed was built with
+     * @param builder the scrollable embed
+     */
+    protected void addPageBuilder(String scrollId, EmbedPageBuilder builder) {
+        idToPageBuilder.put(scrollId, builder);
+        ComponentRouter.initialize().registerPageBuilder(scrollId, this);
+    }
+
+
     /**
      * Helper to extract tokens from a comma-separated string
      * @param str a string containing a list of separated elements e.g. "word1, ha ha, word3"
@@ -241,53 +256,21 @@ public class TriviaEditSession extends ListenerAdapter implements Stoppable {
 
         Set<String> triviaNames = new HashSet<>();
 
-        /* Load appropriate trivias into triviaTypes if they contain a matching tag
-         * Loop through all files in trivia directory to see if the user-chosen tag
-         * matches the trivia's tag or name. If so, add it to the trivia type list
-         * for this trivia instance. */
-        final FileNameExtensionFilter extensionFilter =
-                new FileNameExtensionFilter("N/A", "json");
-        File tDir = new File(path);
-        for (File file : tDir.listFiles()) {
-            if (extensionFilter.accept(file) && file.isFile()) {
-                String fileName = file.getName();
-                JSONObject trivObj = (JSONObject) IO.readJson(path + fileName);
-                String trivName = (String)trivObj.get("name");
-                String trivAuthor = (String)trivObj.get("author");
-                if (!creatorOnly) {
-                    List<String> editors = (JSONArray)trivObj.get("allowed_editors");
-                    if (editors.stream().anyMatch(username::equalsIgnoreCase)
-                            || username.equalsIgnoreCase(trivAuthor)) {
-                        triviaNames.add(trivName);
-                    }
-                }
-                else {
-                    if (username.equalsIgnoreCase(trivAuthor)) {
-                        triviaNames.add(trivName);
-                    }
+        /* Loop through all loaded trivias to see if the user is its creator
+         * or, unless creatorOnly, one of its allowed editors. */
+        for (TriviaType type : TriviaRegistry.initialize().getAll()) {
+            String trivName = type.getName();
+            String trivAuthor = type.getAuthor();
+            if (!creatorOnly) {
+                List<String> editors = type.getEditors();
+                if (editors.stream().anyMatch(username::equalsIgnoreCase)
+                        || username.equalsIgnoreCase(trivAuthor)) {
+                    triviaNames.add(trivName);
                 }
-
             }
-        }
-
-        tDir = new File(path + "custom/");
-        for (File file : tDir.listFiles()) {
-            if (extensionFilter.accept(file) && file.isFile()) {
-                String fileName = file.getName();
-                JSONObject trivObj = (JSONObject)IO.readJson(path + "custom/" + fileName);
-                String trivName = (String)trivObj.get("name");
-                String trivAuthor = (String)trivObj.get("author");
-                if (!creatorOnly) {
-                    List<String> editors = (JSONArray)trivObj.get("allowed_editors");
-                    if (editors.stream().anyMatch(username::equalsIgnoreCase)
-                            || username.equalsIgnoreCase(trivAuthor)) {
-                        triviaNames.add(trivName);
-                    }
-                }
-                else {
-                    if (username.equalsIgnoreCase(trivAuthor)) {
-                        triviaNames.add(trivName);
-                    }
+            else {
+                if (username.equalsIgnoreCase(trivAuthor)) {
+                    triviaNames.add(trivName);
                 }
             }
         }
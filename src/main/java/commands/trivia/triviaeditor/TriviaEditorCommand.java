@@ -1,5 +1,6 @@
 package commands.trivia.triviaeditor;
 
+import commands.ComponentRouter;
 import commands.IBotCommand;
 import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
@@ -24,6 +25,7 @@ public class TriviaEditorCommand extends ListenerAdapter implements IBotCommand
 
     public TriviaEditorCommand() {
         activeEditIDs = new ArrayList<>();
+        ComponentRouter.initialize().registerPageBuilder(BUTTON_ID, this);
     }
 
     @Override
@@ -2,6 +2,7 @@ package commands.trivia.triviaeditor;
 
 import commands.trivia.QA;
 import commands.trivia.Trivia;
+import commands.trivia.TriviaRegistry;
 import commands.trivia.TriviaType;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.Guild;
@@ -667,8 +668,8 @@ public class TriviaModifier {
                     return;
                 }
 
-                boolean deleteSuccess = IO.deleteFile(session.path +
-                        "custom/" + session.triviaType.getName() + ".json");
+                String oldPath = session.path + "custom/" + session.triviaType.getName() + ".json";
+                boolean deleteSuccess = IO.deleteFile(oldPath);
                 /* If failed to delete the previous file with old name, send error and
                  * delete the new one.
                  */
@@ -676,10 +677,13 @@ public class TriviaModifier {
                     session.channel.sendMessage("There was a problem when replacing the previous " +
                                     "trivia's name file. Please try again.")
                             .queue();
-                    IO.deleteFile(session.path + "custom/" + modifiedTrivia.getName());
+                    String newPath = session.path + "custom/" + modifiedTrivia.getName() + ".json";
+                    IO.deleteFile(newPath);
+                    TriviaRegistry.initialize().remove(newPath);
                     session.stop(session.user, session.channel);
                     return;
                 }
+                TriviaRegistry.initialize().remove(oldPath);
             }
             else if (session.inputType == TriviaEditSession.InputType.TAGS) {
                 writeBack("your new tags have been updated.");
@@ -769,16 +773,18 @@ public class TriviaModifier {
 
 
     private void writeBack(String successMsg) {
-        boolean success = modifiedTrivia.writeTrivia(
-                session.path + "custom/" + modifiedTrivia.getName());
-        if (success) {
-            session.channel.sendMessage("Success: " + successMsg)
-                    .queue();
-        }
-        else {
-            session.channel.sendMessage("Oops, something went wrong."  +
-                    " Please try again").queue();
-        }
+        modifiedTrivia.writeTriviaLater(session.path + "custom/" + modifiedTrivia.getName())
+                .thenAccept(written -> {
+                    if (written) {
+                        session.channel.sendMessage("Success: " + successMsg)
+                                .queue();
+                    }
+                    else {
+                        session.channel.sendMessage("Your changes could not be saved yet. They are " +
+                                "used for now and saving will be tried again, but may be lost if I restart.")
+                                .queue();
+                    }
+                });
     }
 
     public void promptTrivia() {
@@ -805,7 +811,7 @@ public class TriviaModifier {
         session.channel.sendMessageEmbeds(session.triviaType.asEmbed())
                         .queue();
         EmbedPageBuilder builder = session.triviaType.asQuestionsEmbed(session.modifyScrollId);
-        session.idToPageBuilder.put(session.modifyScrollId,builder);
+        session.addPageBuilder(session.modifyScrollId, builder);
         session.channel.sendMessageEmbeds(builder.build())
                 .setComponents().setActionRow(builder.getPageBuilderActionRow())
                 .queue();
@@ -931,7 +937,7 @@ public class TriviaModifier {
                             "3, 7, 15 ")
                     .queue();
             EmbedPageBuilder builder = session.triviaType.asQuestionsEmbed(session.scrollQuestionId);
-            session.idToPageBuilder.put(session.scrollQuestionId,builder);
+            session.addPageBuilder(session.scrollQuestionId, builder);
             session.channel.sendMessageEmbeds(builder.build())
                     .setComponents().setActionRow(builder.getPageBuilderActionRow())
                     .queue();
@@ -2,6 +2,7 @@ package commands.trivia.triviaeditor;
 
 import commands.Stoppable;
 import commands.trivia.Trivia;
+import commands.trivia.TriviaRegistry;
 import commands.trivia.TriviaType;
 import util.IO;
 
@@ -64,8 +65,8 @@ public class TriviaRemover {
 
     public void processConfirm(String input) {
         if (input.equalsIgnoreCase(confirmDeleteStr)) {
-            boolean deleteSuccess = IO.deleteFile(session.path +
-                    "custom/" + session.triviaType.getName() + ".json");
+            String triviaPath = session.path + "custom/" + session.triviaType.getName() + ".json";
+            boolean deleteSuccess = IO.deleteFile(triviaPath);
 
             /* If failed to delete the previous file with old name, send error and
              * delete the new one.
@@ -76,6 +77,7 @@ public class TriviaRemover {
                         .queue();
             }
             else {
+                TriviaRegistry.initialize().remove(triviaPath);
                 session.channel.sendMessage("Trivia has been deleted successfully.")
                         .queue();
             }
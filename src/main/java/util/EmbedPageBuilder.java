@@ -469,6 +469,7 @@ public class EmbedPageBuilder extends EmbedBuilder {
 
         if (event.getComponentId().equals(DELETE_EMBED + id)) {
             event.getMessage().delete().queue();
+            isErased = true;
         }
 
         if (event.getComponentId().equals(BUTTON_PREVIOUS_PAGE + id)) {
@@ -1,12 +1,20 @@
 package util;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 
 import org.json.simple.JSONArray;
+import org.json.simple.JSONAware;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
@@ -17,6 +25,9 @@ import org.json.simple.parser.ParseException;
  */
 public class IO {
 
+    /* Writes files in the background for writeJsonLater() */
+    private static final WriteBehindQueue writeQueue = new WriteBehindQueue();
+
     /**
      * Reads the entire file given by the String path, returns an array
      * where each element is a line from the file. (Index 0 = first line,
@@ -91,43 +102,249 @@ public class IO {
      * @return true if successful, false if not.
      */
     public static boolean writeJson(JSONArray jsonArray, String path) {
-        boolean successful = true;
-        FileWriter writer = null;
+        return writeJsonNow(jsonArray, path);
+    }
+
+    /**
+     * Writes a json object to the file specified by the given path.
+     * @param jsonObj Object to write to file
+     * @param path file to write to
+     * @return true if successful, false if not.
+     */
+    public static boolean writeJson(JSONObject jsonObj, String path) {
+        return writeJsonNow(jsonObj, path);
+    }
+
 
+    /**
+     * Writes a json object to the file at the given path in the background.
+     * If the file is written to again before that happens, only the newest
+     * content is written. Reading the file with readJson() right after
+     * returns the new content even if it has not been written yet.
+     *
+     * @param json Object to write to file
+     * @param path file to write to
+     * @return completed with true once the file is written, or with false if
+     *         writing it failed. A failed write is still tried again later.
+     */
+    public static CompletableFuture<Boolean> writeJsonLater(JSONAware json, String path) {
+        return writeQueue.writeLater(path, json.toJSONString());
+    }
+
+
+    /**
+     * Writes a json object to a temporary file, then replaces the file at
+     * the given path with it, so the file is never left half written.
+     */
+    private static boolean writeJsonNow(JSONAware json, String path) {
         try {
-            writer = new FileWriter(path, false);
-            writer.write(jsonArray.toJSONString());
-            writer.close();
+            writeQueue.writeNow(path, json.toJSONString());
+            return true;
         }
         catch(IOException e) {
             System.out.println(e.getLocalizedMessage());
-            successful = false;
+            return false;
         }
-
-        return successful;
     }
 
+
     /**
-     * Writes a json object to the file specified by the given path.
-     * @param jsonObj Object to write to file
+     * Writes bytes to a temporary file, then replaces the file at the given
+     * path with it, so the file is never left half written.
+     *
+     * @param data entire new content of the file
      * @param path file to write to
      * @return true if successful, false if not.
      */
-    public static boolean writeJson(JSONObject jsonObj, String path) {
-        boolean successful = true;
-        FileWriter writer = null;
+    public static boolean writeBytes(byte[] data, String path) {
+        try {
+            writeQueue.writeNow(path, data);
+            return true;
+        }
+        catch(IOException e) {
+            System.out.println(e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+
+    /**
+     * Maps a whole file into memory for reading. The file stays mapped until
+     * the buffer is garbage collected, and on some systems, such as Windows,
+     * it cannot be replaced or deleted until then. Files that change are
+     * written as versions through nextVersion() instead of over the mapped one.
+     *
+     * @param path file to map
+     * @return a read-only buffer over the file, or null if it could not be mapped.
+     */
+    public static MappedByteBuffer mapFile(String path) {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        catch(IOException e) {
+            System.out.println(e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * Finds the newest version of a file written through nextVersion().
+     *
+     * @param directory directory of the file
+     * @param name name of the file, without version and suffix
+     * @param suffix suffix of the file, e.g. ".bin"
+     * @return the newest version, or null if there is none
+     */
+    public static File latestVersion(String directory, String name, String suffix) {
+        File latest = null;
+        long latestVersion = -1;
+        File[] files = new File(directory).listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            long version = versionOf(file, name, suffix);
+            if (version > latestVersion) {
+                latest = file;
+                latestVersion = version;
+            }
+        }
+        return latest;
+    }
+
+
+    /**
+     * Picks the file to write a new version of a file to, named
+     * "name-version" followed by the suffix, with a version newer than any
+     * existing one. Creates the directory if needed.
+     *
+     * @param directory directory of the file
+     * @param name name of the file, without version and suffix
+     * @param suffix suffix of the file, e.g. ".bin"
+     * @return file for the new version, which does not exist yet
+     */
+    public static File nextVersion(String directory, String name, String suffix) {
+        new File(directory).mkdirs();
+        long version = System.currentTimeMillis();
+        File latest = latestVersion(directory, name, suffix);
+        if (latest != null) {
+            version = Math.max(version, versionOf(latest, name, suffix) + 1);
+        }
+        return new File(directory, name + "-" + version + suffix);
+    }
+
 
+    /**
+     * Deletes the versions of a file older than the given one. Versions that
+     * are still mapped on systems that do not allow deleting them are left,
+     * to be deleted after a later version is written instead.
+     *
+     * @param current version to keep, as returned by nextVersion()
+     * @param name name of the file, without version and suffix
+     * @param suffix suffix of the file, e.g. ".bin"
+     */
+    public static void deleteOlderVersions(File current, String name, String suffix) {
+        long version = versionOf(current, name, suffix);
+        File[] files = current.getAbsoluteFile().getParentFile().listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            long other = versionOf(file, name, suffix);
+            if (other >= 0 && other < version) {
+                file.delete();
+            }
+        }
+    }
+
+
+    /**
+     * @return version of the file, or -1 if it is not a version of the given name
+     */
+    private static long versionOf(File file, String name, String suffix) {
+        String fileName = file.getName();
+        String prefix = name + "-";
+        if (!fileName.startsWith(prefix) || !fileName.endsWith(suffix)) {
+            return -1;
+        }
+        String version = fileName.substring(prefix.length(), fileName.length() - suffix.length());
+        if (version.isEmpty() || !version.chars().allMatch(Character::isDigit)) {
+            return -1;
+        }
         try {
-            writer = new FileWriter(path, false);
-            writer.write(jsonObj.toJSONString());
-            writer.close();
+            return Long.parseLong(version);
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    /**
+     * Appends a line to the end of a file, creating the file if needed,
+     * and forces it to disk before returning.
+     *
+     * @param line text to append, without the line separator
+     * @param path file to append to
+     * @return true if successful, false if not.
+     */
+    public static boolean appendLine(String line, String path) {
+        ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(Charset.defaultCharset()));
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+            return true;
         }
         catch(IOException e) {
             System.out.println(e.getLocalizedMessage());
-            successful = false;
+            return false;
         }
+    }
+
+
+    /**
+     * Drops the last line of a file if it does not end with a line separator,
+     * as happens when a crash cuts off appendLine(), so the next line
+     * appended starts on a line of its own.
+     *
+     * @param path file to check
+     * @return true if the file ends with a whole line or is empty now, false if it could not be fixed.
+     */
+    public static boolean dropUnterminatedLine(String path) {
+        try (FileChannel channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = channel.size();
+            ByteBuffer chunk = ByteBuffer.allocate(4096);
+
+            /* Search back from the end for the last line separator */
+            long lineEnd = end;
+            while (lineEnd > 0) {
+                long start = Math.max(0, lineEnd - chunk.capacity());
+                chunk.clear();
+                chunk.limit((int)(lineEnd - start));
+                while (chunk.hasRemaining() && channel.read(chunk, start + chunk.position()) >= 0) {
+                }
+                int i = chunk.position() - 1;
+                while (i >= 0 && chunk.get(i) != '\n') {
+                    i--;
+                }
+                if (i >= 0) {
+                    lineEnd = start + i + 1;
+                    break;
+                }
+                lineEnd = start;
+            }
 
-        return successful;
+            if (lineEnd < end) {
+                System.out.println("Dropping cut off last line of " + path);
+                channel.truncate(lineEnd);
+                channel.force(false);
+            }
+            return true;
+        }
+        catch(IOException e) {
+            System.out.println(e.getLocalizedMessage());
+            return false;
+        }
     }
 
 
@@ -141,7 +358,8 @@ public class IO {
         Object res;
 
         try {
-            FileReader reader = new FileReader(path);
+            String pending = writeQueue.getPending(path);
+            Reader reader = pending != null ? new StringReader(pending) : new FileReader(path);
             res = parser.parse(reader);
             reader.close();
         }
@@ -157,6 +375,34 @@ public class IO {
         return res;
     }
 
+    /**
+     * Reads a JSON file as a stream of events handed to the given handler,
+     * without building the whole file in memory first.
+     *
+     * @param path file to read from
+     * @param handler handler that receives the events
+     * @return true if the whole file was read, false if it could not be read or parsed.
+     */
+    public static boolean streamJson(String path, JsonStreamHandler handler) {
+        JSONParser parser = new JSONParser();
+        String pending = writeQueue.getPending(path);
+
+        try (Reader reader = pending != null ?
+                new StringReader(pending) : new BufferedReader(new FileReader(path))) {
+            parser.parse(reader, handler);
+            return true;
+        }
+        catch(ParseException e) {
+            System.out.println(path + ": " + e);
+            return false;
+        }
+        catch(IOException e) {
+            System.out.println(e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+
     /**
      * Checks if a given file at the path exists or not.
      * @param path file to check
@@ -164,7 +410,7 @@ public class IO {
      */
     public static boolean fileExists (String path) {
         File file = new File(path);
-        return file.exists();
+        return file.exists() || writeQueue.getPending(path) != null;
     }
 
 
@@ -179,9 +425,8 @@ public class IO {
             return false;
         }
 
-        File file = new File(path);
         try {
-            if (!file.delete()) {
+            if (!writeQueue.delete(path)) {
                 return false;
             }
         }
@@ -217,6 +462,14 @@ public class IO {
             fileNames.add(name);
         }
 
+        /* Files that were written with writeJsonLater() but are not on disk yet */
+        for (String pendingPath : writeQueue.getPendingIn(dirPath)) {
+            String name = new File(pendingPath).getName();
+            if (!fileNames.contains(name)) {
+                fileNames.add(name);
+            }
+        }
+
         return fileNames;
     }
 
@@ -0,0 +1,135 @@
+package util;
+
+import org.json.simple.parser.ContentHandler;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Base class for reading a JSON file as a stream of events with
+ * IO.streamJson(), instead of first building the whole file as JSONObjects
+ * and JSONArrays in memory. Subclasses build their own objects straight
+ * from the events they care about and ignore the rest.
+ *
+ * Every event is given the key it belongs to: the field name of the value,
+ * object or array inside its enclosing object. Inside an array the key of the
+ * array itself is given, so e.g. every element of "tags": [..] comes with
+ * the key "tags". At the top level the key is null.
+ *
+ * depth() gives how many objects and arrays enclose the current event, where
+ * the outermost one has a depth of 1. For startObject() and startArray() this
+ * includes the one just started.
+ */
+public abstract class JsonStreamHandler implements ContentHandler {
+
+    /* Keys of the object entries currently open, innermost last */
+    private final Deque<String> keys = new ArrayDeque<>();
+
+    private int depth = 0;
+
+
+    /**
+     * Called when an object starts
+     * @param key key the object belongs to
+     */
+    protected void startObject(String key) {
+    }
+
+    /**
+     * Called when an object ends
+     * @param key key the object belongs to
+     */
+    protected void endObject(String key) {
+    }
+
+    /**
+     * Called when an array starts
+     * @param key key the array belongs to
+     */
+    protected void startArray(String key) {
+    }
+
+    /**
+     * Called when an array ends
+     * @param key key the array belongs to
+     */
+    protected void endArray(String key) {
+    }
+
+    /**
+     * Called for every string, number, boolean or null
+     * @param key key the value belongs to
+     * @param value String, Long, Double, Boolean, or null
+     */
+    protected abstract void value(String key, Object value);
+
+
+    /**
+     * @return number of objects and arrays enclosing the current event
+     */
+    protected int depth() {
+        return depth;
+    }
+
+
+    private String currentKey() {
+        return keys.isEmpty() ? null : keys.peekLast();
+    }
+
+
+    @Override
+    public void startJSON() {
+        keys.clear();
+        depth = 0;
+    }
+
+    @Override
+    public void endJSON() {
+    }
+
+    @Override
+    public boolean startObject() {
+        depth++;
+        startObject(currentKey());
+        return true;
+    }
+
+    @Override
+    public boolean endObject() {
+        endObject(currentKey());
+        depth--;
+        return true;
+    }
+
+    @Override
+    public boolean startObjectEntry(String key) {
+        keys.addLast(key);
+        return true;
+    }
+
+    @Override
+    public boolean endObjectEntry() {
+        keys.pollLast();
+        return true;
+    }
+
+    @Override
+    public boolean startArray() {
+        depth++;
+        startArray(currentKey());
+        return true;
+    }
+
+    @Override
+    public boolean endArray() {
+        endArray(currentKey());
+        depth--;
+        return true;
+    }
+
+    @Override
+    public boolean primitive(Object value) {
+        value(currentKey(), value);
+        return true;
+    }
+}
@@ -0,0 +1,130 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size, lock free histogram of durations in microseconds.
+ *
+ * Buckets are laid out like an HdrHistogram with low precision: every power
+ * of two is split into SUB_BUCKETS equal parts, so any recorded value lands in
+ * a bucket no more than 1/SUB_BUCKETS wider than the value itself. Recording
+ * is a couple of bit operations and one atomic increment, which keeps it cheap
+ * enough to run on every command invocation.
+ */
+public class LatencyHistogram {
+
+    /* Number of sub-buckets per power of two, must be a power of two */
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+    /* Values below 2^(MAX_EXPONENT+1) microseconds (~4.7 hours) are kept apart,
+     * longer ones are counted in the last bucket */
+    private static final int MAX_EXPONENT = 33;
+
+    /* Groups of SUB_BUCKETS: one for values below SUB_BUCKETS, then one per exponent */
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder sum;
+
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(BUCKET_COUNT);
+        count = new LongAdder();
+        sum = new LongAdder();
+    }
+
+
+    /**
+     * Records one duration.
+     * @param micros duration in microseconds, negative values count as 0
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        buckets.incrementAndGet(bucketOf(micros));
+        count.increment();
+        sum.add(micros);
+    }
+
+
+    /**
+     * @return number of durations recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+
+    /**
+     * @return mean of all recorded durations in microseconds, 0 if none
+     */
+    public long getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+
+    /**
+     * Returns the value at or below which the given fraction of recorded
+     * durations fall. The value returned is the upper edge of the bucket the
+     * percentile lands in, so it may overestimate by one bucket width.
+     *
+     * @param fraction between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return duration in microseconds, 0 if nothing was recorded
+     */
+    public long getPercentile(double fraction) {
+        long total = 0;
+        long[] snapshot = new long[buckets.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long)Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return upperEdgeOf(i);
+            }
+        }
+        return upperEdgeOf(snapshot.length - 1);
+    }
+
+
+    /**
+     * Values below SUB_BUCKETS get a bucket each. Above that, the exponent
+     * picks the group and the SUB_BITS bits right below the highest set bit
+     * pick the bucket within the group.
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int group = exponent - SUB_BITS + 1;
+        int sub = (int)(value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return group * SUB_BUCKETS + sub;
+    }
+
+
+    private static long upperEdgeOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int group = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        int exponent = group + SUB_BITS - 1;
+        long width = 1L << (exponent - SUB_BITS);
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+}
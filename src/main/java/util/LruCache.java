@@ -0,0 +1,143 @@
+package util;
+
+import org.json.simple.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map that holds at most maxSize entries and forgets entries that have not
+ * been used for longer than maxIdleMillis. When full, the entry that was used
+ * least recently is evicted to make room.
+ *
+ * Keeps count of hits, misses, and entries evicted for size or for being
+ * idle, so the limits can be tuned from the stats. All methods are synchronized.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class LruCache<K, V> {
+
+    private final int maxSize;
+    private final long maxIdleMillis;
+
+    /* In order of last use, least recently used first */
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long expirations = 0;
+
+    /**
+     * @param maxSize maximum number of entries held
+     * @param maxIdleMillis time after its last use an entry is dropped
+     */
+    public LruCache(int maxSize, long maxIdleMillis) {
+        this.maxSize = maxSize;
+        this.maxIdleMillis = maxIdleMillis;
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+
+    /**
+     * @param key key to look up
+     * @return the value of the key, or null if not held. Counts as a use of the entry.
+     */
+    public synchronized V get(K key) {
+        long now = System.currentTimeMillis();
+        expire(now);
+
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        entry.lastUsed = now;
+        return entry.value;
+    }
+
+
+    /**
+     * Adds or replaces the value of a key, evicting the least recently
+     * used entry if the cache is full.
+     *
+     * @param key key
+     * @param value value
+     */
+    public synchronized void put(K key, V value) {
+        long now = System.currentTimeMillis();
+        expire(now);
+
+        entries.put(key, new Entry<>(value, now));
+        if (entries.size() > maxSize) {
+            Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+
+    /**
+     * @param key key to remove
+     * @return the value the key had, or null if not held.
+     */
+    public synchronized V remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        return entry == null ? null : entry.value;
+    }
+
+
+    /**
+     * @return number of entries held
+     */
+    public synchronized int size() {
+        expire(System.currentTimeMillis());
+        return entries.size();
+    }
+
+
+    /**
+     * @return size, limits, and counts of hits, misses, evictions and expirations
+     */
+    public synchronized JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        stats.put("size", entries.size());
+        stats.put("max_size", maxSize);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("expirations", expirations);
+        return stats;
+    }
+
+
+    /**
+     * Drops entries not used for maxIdleMillis. Since entries are kept in
+     * order of last use, this stops at the first entry still in use.
+     */
+    private void expire(long now) {
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().lastUsed <= maxIdleMillis) {
+                return;
+            }
+            iterator.remove();
+            expirations++;
+        }
+    }
+
+
+    private static class Entry<V> {
+        final V value;
+        long lastUsed;
+
+        Entry(V value, long lastUsed) {
+            this.value = value;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes whole files in the background, used by IO for files that are
+ * rewritten often (e.g. a server's quotes).
+ *
+ * Only the newest content of each file is kept while it waits to be written,
+ * so a burst of changes to the same file within FLUSH_DELAY_MS ends up as a
+ * single write. Every write, queued or not, goes to a temporary file which is
+ * synced to disk and then renamed over the real file, so a crash part way
+ * through leaves either the old or the new content, never a mix of both.
+ *
+ * Content that has not been written yet can be read back through
+ * getPending(), so callers see their own writes right away.
+ *
+ * A write that fails stays queued and is tried again, waiting twice as long
+ * after each failed flush up to MAX_RETRY_DELAY_MS.
+ */
+class WriteBehindQueue {
+
+    /* How long to wait after the first queued write before writing everything queued */
+    private static final long FLUSH_DELAY_MS = 500;
+
+    /* Longest wait before trying failed writes again */
+    private static final long MAX_RETRY_DELAY_MS = 60_000;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /* Path -> newest content not yet written to that path */
+    private final Map<String, Pending> pending;
+
+    /* Held while a file is written or deleted, so they happen one at a time */
+    private final Object commitLock;
+
+    private final AtomicBoolean flushScheduled;
+    private final ScheduledExecutorService flusher;
+
+    /* Flushes in a row that failed to write something, only used by flush() */
+    private int failedFlushes;
+
+    WriteBehindQueue() {
+        pending = new ConcurrentHashMap<>();
+        commitLock = new Object();
+        flushScheduled = new AtomicBoolean(false);
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        /* Whatever is still queued when the bot shuts down is written before exiting */
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "write-behind-shutdown"));
+    }
+
+
+    /**
+     * Queues content to be written to a file, replacing any content
+     * already queued for that file.
+     *
+     * @param path file to write to
+     * @param data entire new content of the file
+     * @return completed with true once the content, or newer content queued
+     *         after it, is written. Completed with false if writing it failed
+     *         or it was dropped, though a failed write is still tried again.
+     */
+    CompletableFuture<Boolean> writeLater(String path, String data) {
+        Pending queued = pending.compute(path, (key, old) ->
+                new Pending(data, old == null || old.written.isDone() ? new CompletableFuture<>() : old.written));
+        if (flushScheduled.compareAndSet(false, true)) {
+            flusher.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+        return queued.written;
+    }
+
+
+    /**
+     * Writes content to a file right away, dropping anything queued for it.
+     *
+     * @param path file to write to
+     * @param data entire new content of the file
+     * @throws IOException if the file could not be written
+     */
+    void writeNow(String path, String data) throws IOException {
+        writeNow(path, data.getBytes(Charset.defaultCharset()));
+    }
+
+
+    /**
+     * Writes bytes to a file right away, dropping anything queued for it.
+     *
+     * @param path file to write to
+     * @param data entire new content of the file
+     * @throws IOException if the file could not be written
+     */
+    void writeNow(String path, byte[] data) throws IOException {
+        synchronized (commitLock) {
+            Pending dropped = pending.remove(path);
+            try {
+                commit(path, data);
+            }
+            catch (IOException e) {
+                if (dropped != null) {
+                    dropped.written.complete(false);
+                }
+                throw e;
+            }
+            if (dropped != null) {
+                dropped.written.complete(true);
+            }
+        }
+    }
+
+
+    /**
+     * Deletes a file, dropping anything queued for it.
+     *
+     * @param path file to delete
+     * @return true if there was something to delete, and it was deleted.
+     */
+    boolean delete(String path) {
+        synchronized (commitLock) {
+            Pending dropped = pending.remove(path);
+            boolean wasPending = dropped != null;
+            if (wasPending) {
+                dropped.written.complete(false);
+            }
+            File file = new File(path);
+            if (!file.exists()) {
+                return wasPending;
+            }
+            return file.delete();
+        }
+    }
+
+
+    /**
+     * @param path file to check
+     * @return content queued to be written to the file, or null if none.
+     */
+    String getPending(String path) {
+        Pending queued = pending.get(path);
+        return queued == null ? null : queued.data;
+    }
+
+
+    /**
+     * @param dirPath directory to check
+     * @return paths of files queued to be written inside the given directory
+     */
+    List<String> getPendingIn(String dirPath) {
+        List<String> paths = new ArrayList<>();
+        Path dir = Paths.get(dirPath).toAbsolutePath().normalize();
+        for (String path : pending.keySet()) {
+            Path parent = Paths.get(path).toAbsolutePath().normalize().getParent();
+            if (dir.equals(parent)) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+
+    /**
+     * Writes everything that is queued, and schedules another flush to try
+     * again if anything failed.
+     */
+    synchronized void flush() {
+        flushScheduled.set(false);
+        boolean failed = false;
+
+        for (String path : pending.keySet()) {
+            synchronized (commitLock) {
+                Pending queued = pending.get(path);
+                if (queued == null) {
+                    continue;
+                }
+
+                try {
+                    commit(path, queued.data.getBytes(Charset.defaultCharset()));
+                    /* Only drop it if nothing newer was queued while writing */
+                    if (pending.remove(path, queued)) {
+                        queued.written.complete(true);
+                    }
+                }
+                catch (IOException e) {
+                    /* Left queued, so it is tried again on the next flush */
+                    System.out.println("Failed to write " + path + ": " + e.getLocalizedMessage());
+                    queued.written.complete(false);
+                    failed = true;
+                }
+            }
+        }
+
+        if (!failed) {
+            failedFlushes = 0;
+            return;
+        }
+        failedFlushes++;
+        long delay = Math.min(FLUSH_DELAY_MS << Math.min(failedFlushes, 16), MAX_RETRY_DELAY_MS);
+        if (flushScheduled.compareAndSet(false, true)) {
+            flusher.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    /**
+     * Writes to a temporary file next to the target, forces it to disk and
+     * renames it over the target.
+     */
+    private static void commit(String path, byte[] data) throws IOException {
+        Path target = Paths.get(path);
+        Path temp = Paths.get(path + TEMP_SUFFIX);
+
+        ByteBuffer bytes = ByteBuffer.wrap(data);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+
+    /**
+     * Content queued for a file, and the future of whoever queued it
+     */
+    private static class Pending {
+        private final String data;
+        private final CompletableFuture<Boolean> written;
+
+        Pending(String data, CompletableFuture<Boolean> written) {
+            this.data = data;
+            this.written = written;
+        }
+    }
+}
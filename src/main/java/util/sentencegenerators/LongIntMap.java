@@ -0,0 +1,155 @@
+package util.sentencegenerators;
+
+/**
+ * A map from long keys to non-negative int values, stored in two flat arrays
+ * with open addressing and linear probing, so no key or value is boxed.
+ *
+ * Slots are marked empty by the key 0. The key 0 itself is kept aside in
+ * its own field, so every long can be used as a key.
+ */
+class LongIntMap {
+
+    /* Returned by get() for keys that are not in the map */
+    static final int MISSING = -1;
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    /* Value of the key 0, or MISSING */
+    private int zeroValue = MISSING;
+
+
+    LongIntMap() {
+        this(16);
+    }
+
+
+    /**
+     * @param expected number of keys expected, to size the table for
+     */
+    LongIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int)(expected / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+
+    /**
+     * @param key key to look up
+     * @return value of the key, or MISSING if not in the map
+     */
+    int get(long key) {
+        if (key == 0) {
+            return zeroValue;
+        }
+        for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+            long found = keys[slot];
+            if (found == key) {
+                return values[slot];
+            }
+            if (found == 0) {
+                return MISSING;
+            }
+        }
+    }
+
+
+    /**
+     * Maps a key to a value, replacing any value it had.
+     * @param key key
+     * @param value non-negative value
+     */
+    void put(long key, int value) {
+        if (key == 0) {
+            if (zeroValue == MISSING) {
+                size++;
+            }
+            zeroValue = value;
+            return;
+        }
+        for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+            long found = keys[slot];
+            if (found == key) {
+                values[slot] = value;
+                return;
+            }
+            if (found == 0) {
+                keys[slot] = key;
+                values[slot] = value;
+                if (++size >= resizeAt) {
+                    resize(keys.length << 1);
+                }
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * @return number of keys in the map
+     */
+    int size() {
+        return size;
+    }
+
+
+    /**
+     * Calls the visitor with every key and value in the map, in no particular order
+     * @param visitor visitor to call
+     */
+    void forEach(Visitor visitor) {
+        if (zeroValue != MISSING) {
+            visitor.visit(0, zeroValue);
+        }
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0) {
+                visitor.visit(keys[slot], values[slot]);
+            }
+        }
+    }
+
+
+    private int slotOf(long key) {
+        /* Fibonacci hashing spreads keys that only differ in a few bits */
+        return (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = (int)(capacity * LOAD_FACTOR);
+    }
+
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != 0) {
+                int slot = slotOf(key);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+
+    /**
+     * Receives the entries of a map, without boxing them
+     */
+    interface Visitor {
+        void visit(long key, int value);
+    }
+}
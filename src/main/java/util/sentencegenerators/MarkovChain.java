@@ -1,21 +1,94 @@
 package util.sentencegenerators;
 
+import util.IO;
+
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * A class that is responsible for generating "random" sentences through
  * the use of Markov Chains and training data.
+ *
+ * Words are interned into int ids and the chain is kept in flat tables, with
+ * the word after each prefix picked through an alias table. A trained chain
+ * can be saved as a versioned model file and opened again through a
+ * memory-mapped view of it, without training again.
  */
 public class MarkovChain {
 
-    /* For use later */
+    /* Sentences tried before settling for one cut off at maxOutputWords */
     private final int MAX_SENTENCES = 10;
     private String[] words;
+    private List<String> texts;
+
+    /* Returned when looking up a prefix that was never seen */
+    private static final int MISSING = LongIntMap.MISSING;
+
+    /* "BMMC" */
+    private static final int MAGIC = 0x424D4D43;
+    private static final int VERSION = 1;
+
+    private static final String MODEL_SUFFIX = ".model";
+
+    /* Parent of prefixes of one word */
+    private static final int NO_PARENT = -1;
+
+    /* Ids of the words that start and end every sentence */
+    private static final int BOS = Vocabulary.BOS;
+    private static final int EOS = Vocabulary.EOS;
+
+    /* Every word seen, as ids */
+    private Vocabulary vocabulary = new Vocabulary();
+
+    /* Sequence of words (prefix) -> id of the prefix. A prefix is keyed by the
+     * id of the same prefix without its last word in the upper 32 bits, and the
+     * folded id of its last word in the lower 32, so a prefix of any order is
+     * one long and prefixes match ignoring case. Prefixes shorter than order
+     * are kept apart in partialPrefixes, so prefix ids stay dense.
+     * Dropped once the tables below are built */
+    private LongIntMap partialPrefixes = new LongIntMap();
+    private LongIntMap prefixes = new LongIntMap();
+    private int prefixCount = 0;
+
+    /* Prefix id -> ids of its words as first seen, order ids per prefix.
+     * Dropped once the tables below are built */
+    private int[] prefixWords = new int[0];
+
+    /* While training: (prefix id, word id) -> times the word followed the
+     * prefix, and prefix id -> number of distinct words that followed it.
+     * Dropped once the tables below are built */
+    private LongIntMap suffixCounts = new LongIntMap();
+    private int[] distinctSuffixes = new int[0];
+
+    /* Suffixes of prefix p are at suffixStart[p] until suffixStart[p+1] in
+     * the arrays below: ids of the words that can follow the prefix, and the
+     * alias table to pick one. Bucket i picks its own word if a random number
+     * below suffixTotals[p] is below its cut, and the word of bucket
+     * suffixAliases[i] otherwise. Backed by arrays once trained, or by the
+     * model file once opened */
+    private IntBuffer suffixStart;
+    private IntBuffer suffixWords;
+    private IntBuffer suffixCuts;
+    private IntBuffer suffixAliases;
+
+    /* Prefix id -> number of times any word followed it */
+    private IntBuffer suffixTotals;
 
-    /* Sequence of words (prefix) -> possible strings that can follow that word (suffix) */
-    private Map<String, List<String>> chain;
+    /* Index of a suffix -> id of the prefix that ends with it, or MISSING if
+     * that prefix never had a word after it */
+    private IntBuffer suffixNext;
+
+    /* Id of the prefix of only BOS words, which every sentence starts from,
+     * or MISSING if nothing was trained */
+    private int startPrefix;
+
+    /* Builder each thread writes generated sentences into */
+    private static final ThreadLocal<StringBuilder> sentenceBuilder =
+            ThreadLocal.withInitial(StringBuilder::new);
 
     /* Amount of words to consider in prefix */
     private int order;
@@ -26,21 +99,189 @@ public class MarkovChain {
     private String path;
 
     public MarkovChain(int orderIn, String[] wordsIn, int maxIn) {
-        chain = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
         order = orderIn;
         words = wordsIn;
         maxOutputWords = maxIn;
         System.out.println("Loading MarkovChain");
         loadDictionary();
+        buildSuffixTables();
+    }
+
+    /**
+     * @param orderIn amount of words to consider in prefix
+     * @param textsIn training texts, such as messages. Sentences never run
+     *                from one text into the next
+     * @param maxIn maximum amount of words in a generated sentence
+     */
+    public MarkovChain(int orderIn, List<String> textsIn, int maxIn) {
+        order = orderIn;
+        texts = textsIn;
+        maxOutputWords = maxIn;
+        System.out.println("Loading MarkovChain");
+        loadDictionaryFromTexts();
+        buildSuffixTables();
     }
 
     public MarkovChain(int orderIn, String pathIn, int maxIn) {
-        chain = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
         order = orderIn;
         path = pathIn;
         maxOutputWords = maxIn;
         System.out.println("Loading MarkovChain");
         loadDictionaryFromFile();
+        buildSuffixTables();
+    }
+
+    /**
+     * Chain over a model file. Reads the header and takes views of the
+     * tables, which are only read as sentences are generated.
+     * @param model the whole model file
+     * @param maxIn maximum amount of words in a generated sentence
+     */
+    private MarkovChain(ByteBuffer model, int maxIn) {
+        maxOutputWords = maxIn;
+        if (model.getInt() != MAGIC || model.getInt() != VERSION) {
+            throw new IllegalArgumentException("not a model of this version");
+        }
+        order = model.getInt();
+        prefixCount = model.getInt();
+        int suffixCount = model.getInt();
+        startPrefix = model.getInt();
+
+        vocabulary = Vocabulary.read(model);
+        suffixStart = intView(model, prefixCount + 1);
+        suffixTotals = intView(model, prefixCount);
+        suffixWords = intView(model, suffixCount);
+        suffixCuts = intView(model, suffixCount);
+        suffixAliases = intView(model, suffixCount);
+        suffixNext = intView(model, suffixCount);
+
+        /* Only needed for training */
+        partialPrefixes = null;
+        prefixes = null;
+        prefixWords = null;
+        suffixCounts = null;
+        distinctSuffixes = null;
+    }
+
+
+    /**
+     * Opens a model file saved by save(), through a memory-mapped view of it.
+     * The file stays mapped for as long as the chain is in use.
+     *
+     * @param path model file
+     * @param maxIn maximum amount of words in a generated sentence
+     * @return the chain, or null if the file could not be read.
+     */
+    public static MarkovChain open(String path, int maxIn) {
+        ByteBuffer model = IO.mapFile(path);
+        if (model == null) {
+            return null;
+        }
+
+        try {
+            return new MarkovChain(model, maxIn);
+        }
+        catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            System.out.println(path + " is cut off or damaged");
+            return null;
+        }
+    }
+
+
+    /**
+     * Saves the chain as a new version of a model, so it can be opened later
+     * without training again. Older versions of the model are deleted,
+     * except those still mapped on systems that do not allow it, which are
+     * deleted by a later save instead.
+     *
+     * @param directory directory of models, created if needed
+     * @param name name of the model
+     * @return the file saved to, or null if it could not be saved.
+     */
+    public File save(String directory, String name) {
+        File model = IO.nextVersion(directory, name, MODEL_SUFFIX);
+        if (!write(model.getPath())) {
+            return null;
+        }
+        IO.deleteOlderVersions(model, name, MODEL_SUFFIX);
+        return model;
+    }
+
+
+    /**
+     * @param directory directory of models
+     * @param name name of the model
+     * @return file of the newest version of the model, or null if there is none
+     */
+    public static File latestModel(String directory, String name) {
+        return IO.latestVersion(directory, name, MODEL_SUFFIX);
+    }
+
+
+    /**
+     * Writes the chain as a model file. The file must not be mapped.
+     *
+     * Layout of the file, all numbers big-endian:
+     *
+     * int     MAGIC
+     * int     VERSION
+     * int     order
+     * int     number of prefixes P
+     * int     number of suffixes S
+     * int     id of the start prefix, or -1 if nothing was trained
+     * int     number of words V
+     * int     V+1 positions of each word in the word bytes, and of their end
+     * int     number of word bytes
+     *         the UTF-8 bytes of every word, padded to a multiple of 4
+     * int     P+1 suffixStart
+     * int     P   suffixTotals
+     * int     S   suffixWords
+     * int     S   suffixCuts
+     * int     S   suffixAliases
+     * int     S   suffixNext
+     *
+     * @param path file to write to
+     * @return true if successful, false if not.
+     */
+    private boolean write(String path) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(order);
+            out.writeInt(prefixCount);
+            out.writeInt(suffixWords.limit());
+            out.writeInt(startPrefix);
+
+            vocabulary.write(out);
+            for (IntBuffer table : new IntBuffer[] {suffixStart, suffixTotals, suffixWords,
+                    suffixCuts, suffixAliases, suffixNext}) {
+                for (int i = 0; i < table.limit(); i++) {
+                    out.writeInt(table.get(i));
+                }
+            }
+        }
+        catch (IOException e) {
+            System.out.println(e.getLocalizedMessage());
+            return false;
+        }
+        return IO.writeBytes(bytes.toByteArray(), path);
+    }
+
+
+    /**
+     * @param buffer buffer positioned at an array of ints
+     * @param count number of ints in the array
+     * @return view of the array, with the buffer moved past it
+     */
+    private static IntBuffer intView(ByteBuffer buffer, int count) {
+        if (count < 0 || count > buffer.remaining() / Integer.BYTES) {
+            throw new BufferUnderflowException();
+        }
+        ByteBuffer slice = buffer.slice();
+        slice.limit(count * Integer.BYTES);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return slice.asIntBuffer();
     }
 
     /**
@@ -52,22 +293,18 @@ public class MarkovChain {
      * class), and a list of words ("suffixes") that can possibly follow right after the list of k words.
      */
     private void loadDictionary() {
+        train(words);
+    }
 
-        for (int word_i = 0; word_i < words.length - order; word_i++) {
-            StringBuilder keyBuilder = new StringBuilder("");
-            for (int offset = 0; offset < order; offset++) {
-                String token = words[word_i + offset];
-                keyBuilder.append(token);
-                if (offset != order - 1) {
-                    keyBuilder.append(" ");
-                }
-            }
 
-            String key = keyBuilder.toString();
-            if (!chain.containsKey(key)) {
-                chain.put(key, new ArrayList<>());
-            }
-            chain.get(key).add(words[word_i + order]);
+    /**
+     * This method maps what words are likely to come after a certain sequence of
+     * prior words. Same function as loadDictionary() but from separate texts,
+     * each split into words on whitespace.
+     */
+    private void loadDictionaryFromTexts() {
+        for (String text : texts) {
+            train(text.split("\\s+"));
         }
     }
 
@@ -91,23 +328,7 @@ public class MarkovChain {
             System.out.println("Inputting words now");
             while ((line = reader.readLine()) != null) {
                 if (!line.isEmpty()) {
-                    String[] lineWords = line.split("\\s+");
-                    for (int word_i = 0; word_i < lineWords.length - order; word_i++) {
-                        StringBuilder keyBuilder = new StringBuilder("");
-                        for (int offset = 0; offset < order; offset++) {
-                            String token = lineWords[word_i + offset];
-                            keyBuilder.append(token);
-                            if (offset != order - 1) {
-                                keyBuilder.append(" ");
-                            }
-                        }
-                        String key = keyBuilder.toString();
-
-                        if (!chain.containsKey(key)) {
-                            chain.put(key, new ArrayList<>());
-                        }
-                        chain.get(key).add(lineWords[word_i + order]);
-                    }
+                    train(line.split("\\s+"));
                 }
             }
         }
@@ -133,26 +354,278 @@ public class MarkovChain {
      * class), and a list of words ("suffixes") that can possibly follow right after the list of k words.
      */
     private void loadDictionaryToDatabase() {
+        train(words);
+    }
 
-        for (int word_i = 0; word_i < words.length - order; word_i++) {
-            StringBuilder keyBuilder = new StringBuilder("");
-            for (int offset = 0; offset < order; offset++) {
-                String token = words[word_i + offset];
-                keyBuilder.append(token);
-                if (offset != order - 1) {
-                    keyBuilder.append(" ");
-                }
+
+    /**
+     * Splits the given words into sentences, and adds every prefix of each
+     * sentence, and the word right after it, to the chain.
+     * @param tokens words in the order they were written
+     */
+    private void train(String[] tokens) {
+        int[] ids = new int[tokens.length + order + 1];
+        int size = 0;
+        for (String token : tokens) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            if (size == 0) {
+                Arrays.fill(ids, 0, order, BOS);
+                size = order;
+            }
+            ids[size++] = vocabulary.intern(token);
+            if (endsSentence(token)) {
+                trainSentence(ids, size);
+                size = 0;
+            }
+        }
+        if (size > 0) {
+            trainSentence(ids, size);
+        }
+    }
+
+
+    /**
+     * @param ids ids of a sentence after order BOS words, with room for one more
+     * @param size number of ids used
+     */
+    private void trainSentence(int[] ids, int size) {
+        ids[size++] = EOS;
+        for (int word_i = 0; word_i < size - order; word_i++) {
+            addSuffix(internPrefix(ids, word_i), ids[word_i + order]);
+        }
+    }
+
+
+    /**
+     * @param token a word
+     * @return true if the word ends in ., ! or ?, ignoring closing quotes and brackets
+     */
+    private static boolean endsSentence(String token) {
+        for (int i = token.length() - 1; i >= 0; i--) {
+            char c = token.charAt(i);
+            if (c == '.' || c == '!' || c == '?') {
+                return true;
+            }
+            if (c != '"' && c != '\'' && c != ')' && c != ']') {
+                return false;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * @param parent id of the prefix without its last word, or NO_PARENT
+     * @param word id of the last word of the prefix
+     * @return key of the prefix
+     */
+    private long keyOf(int parent, int word) {
+        return ((long)parent << 32) | (vocabulary.folded(word) & 0xFFFFFFFFL);
+    }
+
+
+    /**
+     * @param ids ids of words
+     * @param start index of the first word of the prefix
+     * @return id of the prefix of order words starting at start, added if new
+     */
+    private int internPrefix(int[] ids, int start) {
+        int parent = NO_PARENT;
+        for (int offset = 0; offset < order - 1; offset++) {
+            long key = keyOf(parent, ids[start + offset]);
+            int partial = partialPrefixes.get(key);
+            if (partial == MISSING) {
+                partial = partialPrefixes.size();
+                partialPrefixes.put(key, partial);
+            }
+            parent = partial;
+        }
+
+        long key = keyOf(parent, ids[start + order - 1]);
+        int prefix = prefixes.get(key);
+        if (prefix == MISSING) {
+            prefix = prefixCount++;
+            prefixes.put(key, prefix);
+
+            if (prefix == distinctSuffixes.length) {
+                int capacity = Math.max(16, prefix * 2);
+                prefixWords = Arrays.copyOf(prefixWords, capacity * order);
+                distinctSuffixes = Arrays.copyOf(distinctSuffixes, capacity);
+            }
+            System.arraycopy(ids, start, prefixWords, prefix * order, order);
+        }
+        return prefix;
+    }
+
+
+    /**
+     * @param ids ids of words
+     * @param start index of the first word of the prefix
+     * @return id of the prefix of order words starting at start, or MISSING if never seen
+     */
+    private int findPrefix(int[] ids, int start) {
+        int parent = NO_PARENT;
+        for (int offset = 0; offset < order - 1; offset++) {
+            parent = partialPrefixes.get(keyOf(parent, ids[start + offset]));
+            if (parent == MISSING) {
+                return MISSING;
+            }
+        }
+        return prefixes.get(keyOf(parent, ids[start + order - 1]));
+    }
+
+
+    private void addSuffix(int prefix, int word) {
+        long key = ((long)prefix << 32) | word;
+        int count = suffixCounts.get(key);
+        if (count == MISSING) {
+            count = 0;
+            distinctSuffixes[prefix]++;
+        }
+        suffixCounts.put(key, count + 1);
+    }
+
+
+    /**
+     * Groups the counted suffixes by prefix and builds the alias table of
+     * each prefix, then drops what was only needed for training.
+     */
+    private void buildSuffixTables() {
+        int[] starts = new int[prefixCount + 1];
+        for (int prefix = 0; prefix < prefixCount; prefix++) {
+            starts[prefix + 1] = starts[prefix] + distinctSuffixes[prefix];
+        }
+        int distinct = starts[prefixCount];
+        int[] wordIds = new int[distinct];
+        int[] cuts = new int[distinct];
+        int[] aliases = new int[distinct];
+        int[] totals = new int[prefixCount];
+
+        /* Counts go in cuts until the tables are built */
+        int[] filled = new int[prefixCount];
+        suffixCounts.forEach((key, count) -> {
+            int prefix = (int)(key >>> 32);
+            int slot = starts[prefix] + filled[prefix]++;
+            wordIds[slot] = (int)key;
+            cuts[slot] = count;
+            totals[prefix] += count;
+        });
+        suffixCounts = null;
+        distinctSuffixes = null;
+
+        int[] small = new int[0];
+        int[] large = new int[0];
+        long[] scaled = new long[0];
+        for (int prefix = 0; prefix < prefixCount; prefix++) {
+            int start = starts[prefix];
+            int n = starts[prefix + 1] - start;
+            if (n > scaled.length) {
+                small = new int[n];
+                large = new int[n];
+                scaled = new long[n];
             }
+            buildAliasTable(cuts, aliases, start, n, totals[prefix], small, large, scaled);
+        }
 
-            String key = keyBuilder.toString();
-            if (!chain.containsKey(key)) {
-                chain.put(key, new ArrayList<>());
+        /* Slide each prefix over each of its suffixes */
+        int[] next = new int[distinct];
+        int[] window = new int[order];
+        for (int prefix = 0; prefix < prefixCount; prefix++) {
+            System.arraycopy(prefixWords, prefix * order + 1, window, 0, order - 1);
+            for (int slot = starts[prefix]; slot < starts[prefix + 1]; slot++) {
+                window[order - 1] = wordIds[slot];
+                next[slot] = findPrefix(window, 0);
             }
-            chain.get(key).add(words[word_i + order]);
+        }
+
+        Arrays.fill(window, BOS);
+        startPrefix = prefixCount == 0 ? MISSING : findPrefix(window, 0);
+        partialPrefixes = null;
+        prefixes = null;
+        prefixWords = null;
+
+        suffixStart = IntBuffer.wrap(starts);
+        suffixWords = IntBuffer.wrap(wordIds);
+        suffixCuts = IntBuffer.wrap(cuts);
+        suffixAliases = IntBuffer.wrap(aliases);
+        suffixTotals = IntBuffer.wrap(totals);
+        suffixNext = IntBuffer.wrap(next);
+    }
+
+
+    /**
+     * Turns the counts of n suffixes starting at start into an alias table.
+     * Each count is scaled by n, so every bucket holds exactly total and the
+     * table picks wordIds with exactly the counted odds, in integers.
+     *
+     * @param cuts counts of the suffixes, replaced by the cut of each bucket
+     * @param aliases filled with the alias of each bucket
+     * @param start index of the first suffix of the prefix
+     * @param n number of distinct suffixes of the prefix
+     * @param total sum of the counts
+     * @param small work array of at least n elements
+     * @param large work array of at least n elements
+     * @param scaled work array of at least n elements
+     */
+    private static void buildAliasTable(int[] cuts, int[] aliases, int start, int n, int total,
+                                        int[] small, int[] large, long[] scaled) {
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = (long)cuts[start + i] * n;
+            aliases[start + i] = i;
+            if (scaled[i] < total) {
+                small[smallCount++] = i;
+            }
+            else {
+                large[largeCount++] = i;
+            }
+        }
+
+        /* Fill each underfull bucket up with part of an overfull one */
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            cuts[start + less] = (int)scaled[less];
+            aliases[start + less] = more;
+
+            scaled[more] -= total - scaled[less];
+            if (scaled[more] < total) {
+                small[smallCount++] = more;
+            }
+            else {
+                large[largeCount++] = more;
+            }
+        }
+
+        /* What is left holds exactly total */
+        while (largeCount > 0) {
+            cuts[start + large[--largeCount]] = total;
+        }
+        while (smallCount > 0) {
+            cuts[start + small[--smallCount]] = total;
         }
     }
 
 
+    /**
+     * @param prefix id of a prefix
+     * @param random source of randomness
+     * @return index of a suffix of the prefix, picked with the odds its word
+     *         followed the prefix in training
+     */
+    private int pickSuffix(int prefix, Random random) {
+        int start = suffixStart.get(prefix);
+        int bucket = start + random.nextInt(suffixStart.get(prefix + 1) - start);
+        if (random.nextInt(suffixTotals.get(prefix)) < suffixCuts.get(bucket)) {
+            return bucket;
+        }
+        return start + suffixAliases.get(bucket);
+    }
+
+
     /**
      * This method takes the prefix-suffix mappings of k order and then uses
      * it to generate a seemingly random sentence through the probabilities
@@ -160,32 +633,61 @@ public class MarkovChain {
      * @return a string representing the generated text.
      */
     public String generateSentence() {
-        Random random = new Random();
+        StringBuilder builder = sentenceBuilder.get();
+        builder.setLength(0);
+        generateSentence(builder);
+        return builder.toString();
+    }
+
+
+    /**
+     * Same as generateSentence(), but appends the sentence to the given
+     * builder instead, each word preceded by a space. Sentences longer than
+     * maxOutputWords are thrown away and tried again a few times, before
+     * settling for one cut off.
+     * @param output builder to append to
+     */
+    public void generateSentence(StringBuilder output) {
+        Random random = ThreadLocalRandom.current();
+        int start = output.length();
+        for (int attempt = 1; attempt < MAX_SENTENCES; attempt++) {
+            if (generateFromStart(output, random)) {
+                return;
+            }
+            output.setLength(start);
+        }
+        generateFromStart(output, random);
+    }
+
+
+    /**
+     * Appends one sentence from the start prefix on, each word preceded by a space.
+     * @param output builder to append to
+     * @param random source of randomness
+     * @return true if the sentence ended, false if it was cut off at maxOutputWords
+     */
+    private boolean generateFromStart(StringBuilder output, Random random) {
+        int prefix = startPrefix;
         int count = 0;
-        int index = random.nextInt(chain.size());
-        String prefix = (String) chain.keySet().toArray()[index];
-        List<String> output = new ArrayList<>(Arrays.asList(prefix.split(" ")));
-
-        while (true) {
-            List<String> suffix = chain.get(prefix);
-            if (suffix == null) {
-                return output.stream().reduce("", (a, b) -> a + " " + b);
-            }
-            if (suffix.size() == 1) {
-                if (Objects.equals(suffix.get(0), "")) {
-                    return output.stream().reduce("", (a, b) -> a + " " + b);
-                }
-                output.add(suffix.get(0));
-            } else {
-                index = random.nextInt(suffix.size());
-                output.add(suffix.get(index));
+        while (prefix != MISSING) {
+            int slot = pickSuffix(prefix, random);
+            int word = suffixWords.get(slot);
+            if (word == EOS) {
+                return true;
             }
-            if (output.size() >= maxOutputWords) {
-                return output.stream().limit(maxOutputWords).reduce("", (a, b) -> a + " " + b);
+            if (count == maxOutputWords) {
+                return false;
             }
+            appendWord(output, word);
             count++;
-            prefix = output.stream().skip(count).limit(order).reduce("", (a, b) -> a + " " + b).trim();
+            prefix = suffixNext.get(slot);
         }
+        return true;
+    }
+
+
+    private void appendWord(StringBuilder output, int word) {
+        output.append(' ').append(vocabulary.word(word));
     }
 
 }
@@ -0,0 +1,185 @@
+package util.sentencegenerators;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Interns the words of a chain, giving every distinct word a small int id.
+ * Chains only store and compare ids, and turn them back into words when
+ * writing output.
+ *
+ * Each word also has a folded id: the id of its lowercase form, which is
+ * interned too. Words that only differ in case share a folded id, which is
+ * what prefixes are matched on.
+ *
+ * The first ids are reserved for the start and end of a sentence. No word
+ * is ever interned to them, and they read as empty words.
+ *
+ * A vocabulary read from a model file only turns ids into words, each
+ * decoded from the file the first time it is used.
+ */
+class Vocabulary {
+
+    /* Start of a sentence (beginning of sentence) */
+    static final int BOS = 0;
+
+    /* End of a sentence */
+    static final int EOS = 1;
+
+    private static final int RESERVED = 2;
+
+    private final Map<String, Integer> ids;
+
+    /* id -> word, and id -> id of the word in lowercase */
+    private String[] words;
+    private int[] folded;
+    private int size;
+
+    /* When read from a model file: UTF-8 bytes of every word, and the
+     * position of each word in them followed by the end of the last */
+    private ByteBuffer wordBytes;
+    private IntBuffer wordPositions;
+
+
+    Vocabulary() {
+        ids = new HashMap<>();
+        words = new String[64];
+        folded = new int[64];
+        for (size = 0; size < RESERVED; size++) {
+            words[size] = "";
+            folded[size] = size;
+        }
+    }
+
+
+    /**
+     * @param word word to intern
+     * @return id of the word, added if new
+     */
+    int intern(String word) {
+        Integer id = ids.get(word);
+        if (id != null) {
+            return id;
+        }
+
+        String lower = word.toLowerCase(Locale.ROOT);
+        int foldedId = lower.equals(word) ? size : intern(lower);
+
+        if (size == words.length) {
+            words = Arrays.copyOf(words, size * 2);
+            folded = Arrays.copyOf(folded, size * 2);
+        }
+        words[size] = word;
+        folded[size] = foldedId;
+        ids.put(word, size);
+        return size++;
+    }
+
+
+    /**
+     * @param id id of a word
+     * @return the word
+     */
+    String word(int id) {
+        String word = words[id];
+        if (word == null) {
+            /* Decoding the same word twice on two threads is harmless */
+            int start = wordPositions.get(id);
+            byte[] bytes = new byte[wordPositions.get(id + 1) - start];
+            ByteBuffer source = wordBytes.duplicate();
+            source.position(start);
+            source.get(bytes);
+            word = new String(bytes, StandardCharsets.UTF_8);
+            words[id] = word;
+        }
+        return word;
+    }
+
+
+    /**
+     * @param id id of a word
+     * @return id shared by every word that only differs from it in case
+     */
+    int folded(int id) {
+        return folded[id];
+    }
+
+
+    /**
+     * @return number of words interned, counting the reserved ids
+     */
+    int size() {
+        return size;
+    }
+
+
+    /**
+     * Writes every word in order of id, as read by read().
+     * @param out stream to write to
+     * @throws IOException if the stream could not be written
+     */
+    void write(DataOutputStream out) throws IOException {
+        byte[][] encoded = new byte[size][];
+        int length = 0;
+        for (int id = 0; id < size; id++) {
+            encoded[id] = word(id).getBytes(StandardCharsets.UTF_8);
+            length += encoded[id].length;
+        }
+
+        out.writeInt(size);
+        int position = 0;
+        for (int id = 0; id < size; id++) {
+            out.writeInt(position);
+            position += encoded[id].length;
+        }
+        out.writeInt(position);
+
+        /* Padded so the tables after it stay aligned */
+        out.writeInt(length);
+        for (byte[] bytes : encoded) {
+            out.write(bytes);
+        }
+        for (int i = length; i % Integer.BYTES != 0; i++) {
+            out.write(0);
+        }
+    }
+
+
+    /**
+     * @param buffer buffer positioned at words written by write()
+     * @return vocabulary over the words in the buffer, with the buffer moved past them
+     */
+    static Vocabulary read(ByteBuffer buffer) {
+        Vocabulary vocabulary = new Vocabulary();
+        int size = buffer.getInt();
+        if (size < RESERVED || size > buffer.remaining() / Integer.BYTES) {
+            throw new IllegalArgumentException("bad vocabulary size " + size);
+        }
+        vocabulary.size = size;
+        vocabulary.words = new String[size];
+        vocabulary.words[BOS] = "";
+        vocabulary.words[EOS] = "";
+        vocabulary.folded = null;
+
+        vocabulary.wordPositions = buffer.slice().asIntBuffer();
+        vocabulary.wordPositions.limit(size + 1);
+        buffer.position(buffer.position() + (size + 1) * Integer.BYTES);
+
+        int length = buffer.getInt();
+        int padded = (length + Integer.BYTES - 1) / Integer.BYTES * Integer.BYTES;
+        if (length < 0 || padded > buffer.remaining()) {
+            throw new IllegalArgumentException("bad vocabulary length " + length);
+        }
+        vocabulary.wordBytes = buffer.slice();
+        vocabulary.wordBytes.limit(length);
+        buffer.position(buffer.position() + padded);
+        return vocabulary;
+    }
+}
@@ -0,0 +1,158 @@
+import commands.trivia.AnswerMatcher;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Class of test cases to test matching trivia answers.
+ * Tests normalization of answers and messages, exact matching, keeping
+ * symbols that tell answers apart, and accepting typos only for long
+ * enough answers without numbers.
+ */
+public class TestAnswerMatcher {
+
+    @Test
+    public void testNormalize() {
+        assertEquals("pokemon", AnswerMatcher.normalize("  Pok\u00e9mon! "));
+        assertEquals("mr t", AnswerMatcher.normalize("Mr.   T"));
+        assertEquals("rock n roll", AnswerMatcher.normalize("Rock 'n' Roll"));
+        assertEquals("", AnswerMatcher.normalize("?!"));
+    }
+
+
+    @Test
+    public void testExactMatch() {
+        AnswerMatcher matcher = new AnswerMatcher(Arrays.asList("Pok\u00e9mon", "Mr. T", "?!"), 0);
+        assertTrue(matcher.matches("pokemon"));
+        assertTrue(matcher.matches("POK\u00c9MON!!"));
+        assertTrue(matcher.matches("mr t"));
+        assertTrue(matcher.matches(" ?! "));
+        assertFalse(matcher.matches("pokemn"));
+        assertFalse(matcher.matches("?"));
+        assertFalse(matcher.matches(""));
+        assertFalse(new AnswerMatcher(Collections.emptyList(), 1).matches("anything"));
+    }
+
+
+    @Test
+    public void testTypos() {
+        AnswerMatcher matcher = new AnswerMatcher(Arrays.asList("Mississippi", "Paris", "1984"), 1);
+        assertTrue(matcher.matches("misissippi"));
+        assertTrue(matcher.matches("mississipi"));
+        assertTrue(matcher.matches("mississippo"));
+        assertTrue(matcher.matches("mississippii"));
+        assertFalse(matcher.matches("misisipi"));
+        assertFalse(matcher.matches("mississippi river"));
+
+        /* Short answers and numbers only match exactly */
+        assertTrue(matcher.matches("paris"));
+        assertFalse(matcher.matches("pari"));
+        assertFalse(matcher.matches("1985"));
+
+        assertFalse(new AnswerMatcher(Arrays.asList("Mississippi"), 0).matches("misissippi"));
+    }
+
+
+    @Test
+    public void testTyposPerGame() {
+        AnswerMatcher matcher = new AnswerMatcher(Arrays.asList("Mississippi"), 1);
+        assertTrue(matcher.matches("mississippi!", 0));
+        assertFalse(matcher.matches("misissippi", 0));
+        assertTrue(matcher.matches("misissippi", 1));
+        assertFalse(matcher.matches("misisippi", 1));
+        assertTrue(matcher.matches("misisippi", 2));
+
+        /* Typos can be allowed even if the matcher accepts none by default */
+        assertTrue(new AnswerMatcher(Arrays.asList("Mississippi"), 0).matches("misissippi", 1));
+    }
+
+
+    @Test
+    public void testSymbols() {
+        AnswerMatcher cpp = new AnswerMatcher(Arrays.asList("C++"), 1);
+        assertTrue(cpp.matches("c++"));
+        assertTrue(cpp.matches(" C++! "));
+        assertFalse(cpp.matches("c"));
+        assertFalse(cpp.matches("C#"));
+
+        AnswerMatcher sharp = new AnswerMatcher(Arrays.asList("C#"), 1);
+        assertTrue(sharp.matches("c#"));
+        assertFalse(sharp.matches("c"));
+        assertFalse(sharp.matches("c++"));
+
+        AnswerMatcher rnb = new AnswerMatcher(Arrays.asList("R&B"), 1);
+        assertTrue(rnb.matches("r&b"));
+        assertFalse(rnb.matches("r b"));
+
+        /* Answers without symbols are not affected by them being kept */
+        assertTrue(new AnswerMatcher(Arrays.asList("C"), 1).matches("c."));
+    }
+
+
+    @Test
+    public void testTyposAgainstFullTable() {
+        Random random = new Random(7);
+        for (int n = 0; n < 2000; n++) {
+            String answer = randomWord(random, 6 + random.nextInt(59));
+            String message = mutate(random, answer, random.nextInt(4));
+            int distance = editDistance(AnswerMatcher.normalize(answer), AnswerMatcher.normalize(message));
+
+            for (int typos = 1; typos <= 2; typos++) {
+                boolean expected = distance <= typos;
+                assertEquals(answer + " / " + message,
+                        expected, new AnswerMatcher(Arrays.asList(answer), typos).matches(message));
+            }
+        }
+    }
+
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            word.append((char)('a' + random.nextInt(4)));
+        }
+        return word.toString();
+    }
+
+
+    private static String mutate(Random random, String word, int edits) {
+        StringBuilder mutated = new StringBuilder(word);
+        for (int i = 0; i < edits; i++) {
+            int at = random.nextInt(mutated.length());
+            char c = (char)('a' + random.nextInt(4));
+            switch (random.nextInt(3)) {
+                case 0:
+                    mutated.insert(at, c);
+                    break;
+                case 1:
+                    mutated.deleteCharAt(at);
+                    break;
+                default:
+                    mutated.setCharAt(at, c);
+            }
+        }
+        return mutated.toString();
+    }
+
+
+    private static int editDistance(String a, String b) {
+        int[][] table = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                if (i == 0 || j == 0) {
+                    table[i][j] = i + j;
+                }
+                else {
+                    int substitute = table[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                    table[i][j] = Math.min(substitute, Math.min(table[i - 1][j], table[i][j - 1]) + 1);
+                }
+            }
+        }
+        return table[a.length()][b.length()];
+    }
+}
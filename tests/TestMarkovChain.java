@@ -0,0 +1,127 @@
+import org.junit.Test;
+import util.sentencegenerators.MarkovChain;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Class of test cases to test generating sentences with Markov chains.
+ * Tests that sentences start and end where real ones did, that long ones
+ * are cut off, that words are picked as often as they were seen, and that
+ * chains saved as model files open again the same.
+ */
+public class TestMarkovChain {
+
+    @Test
+    public void testCompleteSentences() {
+        MarkovChain chain = new MarkovChain(2, Arrays.asList(
+                "The cat sat on the mat. The dog ran away!",
+                "A bird   flew over the dog.",
+                "Did the cat see it?"), 30);
+
+        for (int i = 0; i < 200; i++) {
+            String sentence = chain.generateSentence().trim();
+            String first = sentence.split(" ")[0];
+            assertTrue(sentence, first.equals("The") || first.equals("A") || first.equals("Did"));
+            assertTrue(sentence, sentence.endsWith(".") || sentence.endsWith("!") || sentence.endsWith("?"));
+        }
+    }
+
+
+    @Test
+    public void testLongSentencesCutOff() {
+        MarkovChain chain = new MarkovChain(1,
+                Collections.singletonList("one two three four five six seven eight"), 3);
+        assertEquals(" one two three", chain.generateSentence());
+
+        StringBuilder builder = new StringBuilder(">");
+        chain.generateSentence(builder);
+        assertEquals("> one two three", builder.toString());
+    }
+
+
+    @Test
+    public void testPrefixesIgnoreCase() {
+        MarkovChain chain = new MarkovChain(1, Arrays.asList("Go Home", "home RUN"), 30);
+        boolean joined = false;
+        for (int i = 0; i < 200; i++) {
+            String sentence = chain.generateSentence();
+            assertTrue(sentence, Arrays.asList(" Go Home", " Go Home RUN", " home", " home RUN")
+                    .contains(sentence));
+            joined |= sentence.equals(" Go Home RUN");
+        }
+        assertTrue(joined);
+    }
+
+
+    @Test
+    public void testFrequencies() {
+        MarkovChain chain = new MarkovChain(1, Arrays.asList(
+                "x y", "x z", "x z", "x z", "x w", "x w", "x w", "x w", "x w", "x w"), 30);
+
+        Map<String, Integer> counts = new HashMap<>();
+        int samples = 100000;
+        for (int i = 0; i < samples; i++) {
+            counts.merge(chain.generateSentence(), 1, Integer::sum);
+        }
+        assertEquals(0.1, counts.get(" x y") / (double)samples, 0.01);
+        assertEquals(0.3, counts.get(" x z") / (double)samples, 0.01);
+        assertEquals(0.6, counts.get(" x w") / (double)samples, 0.01);
+    }
+
+
+    @Test
+    public void testEmpty() {
+        assertEquals("", new MarkovChain(2, Collections.emptyList(), 30).generateSentence());
+        assertEquals("", new MarkovChain(2, new String[0], 30).generateSentence());
+    }
+
+
+    @Test
+    public void testSaveAndOpen() throws IOException {
+        File directory = Files.createTempDirectory("markov").toFile();
+        directory.deleteOnExit();
+
+        MarkovChain trained = new MarkovChain(2, Arrays.asList(
+                "Caf\u00e9 au lait, s'il vous pla\u00eet.", "The cat sat. The dog ran!"), 30);
+        File first = trained.save(directory.getPath(), "chat");
+        assertNotNull(first);
+        first.deleteOnExit();
+        assertEquals(first, MarkovChain.latestModel(directory.getPath(), "chat"));
+
+        MarkovChain opened = MarkovChain.open(first.getPath(), 30);
+        assertNotNull(opened);
+        for (int i = 0; i < 100; i++) {
+            String sentence = opened.generateSentence();
+            assertTrue(sentence, Arrays.asList(" Caf\u00e9 au lait, s'il vous pla\u00eet.",
+                    " The cat sat.", " The dog ran!").contains(sentence));
+        }
+
+        /* Saving again goes to a new version, never over the mapped one */
+        File empty = new MarkovChain(2, Collections.emptyList(), 30).save(directory.getPath(), "chat");
+        assertNotNull(empty);
+        empty.deleteOnExit();
+        assertFalse(first.equals(empty));
+        assertEquals(empty, MarkovChain.latestModel(directory.getPath(), "chat"));
+        assertEquals("", MarkovChain.open(empty.getPath(), 30).generateSentence());
+        assertNull(MarkovChain.latestModel(directory.getPath(), "other"));
+
+        /* A cut off file does not open */
+        File cut = trained.save(directory.getPath(), "chat");
+        assertNotNull(cut);
+        cut.deleteOnExit();
+        try (RandomAccessFile file = new RandomAccessFile(cut, "rw")) {
+            file.setLength(file.length() - 4);
+        }
+        assertNull(MarkovChain.open(cut.getPath(), 30));
+    }
+}
@@ -0,0 +1,102 @@
+import commands.quotes.Quote;
+import commands.quotes.QuoteContext;
+import commands.quotes.QuoteIndex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Class of test cases to test searching quotes through the quote index.
+ * Tests word and prefix matching, multi-word searches, searching by year,
+ * and that adding & removing quotes is reflected in search results.
+ */
+public class TestQuoteIndex {
+
+    private static QuoteContext context(long id, String author, String name, String said, String year) {
+        Quote quote = new Quote();
+        quote.setName(name);
+        quote.setQuote(said);
+        quote.setYear(year);
+
+        QuoteContext context = new QuoteContext();
+        context.setAuthor(author);
+        context.setId(id);
+        context.addQuoteToContext(quote);
+        return context;
+    }
+
+    private final QuoteContext sky = context(1, "John", "Bob", "The sky is blue!", "2012");
+    private final QuoteContext sea = context(2, "John", "Sally Mae", "The sea is blue too", null);
+    private final QuoteContext grass = context(3, "Isa", "Bob", "Grass is green", "2019");
+
+    private QuoteIndex newIndex() {
+        return new QuoteIndex(new ArrayList<>(Arrays.asList(sky, sea, grass)));
+    }
+
+
+    @Test
+    public void testSearchWords() {
+        QuoteIndex index = newIndex();
+        assertEquals(Arrays.asList(sky, sea), index.search(QuoteIndex.Field.SAID, "blue"));
+        assertEquals(Arrays.asList(sky, sea, grass), index.search(QuoteIndex.Field.SAID, "IS"));
+        assertEquals(Arrays.asList(sky), index.search(QuoteIndex.Field.SAID, "sky!"));
+        assertTrue(index.search(QuoteIndex.Field.SAID, "purple").isEmpty());
+        assertTrue(index.search(QuoteIndex.Field.SAID, "  ").isEmpty());
+    }
+
+
+    @Test
+    public void testSearchPrefixAndMultipleWords() {
+        QuoteIndex index = newIndex();
+        assertEquals(Arrays.asList(sky, sea), index.search(QuoteIndex.Field.SAID, "bl"));
+        assertEquals(Arrays.asList(sky), index.search(QuoteIndex.Field.SAID, "bl sk"));
+        assertEquals(Arrays.asList(sea), index.search(QuoteIndex.Field.SAID, "the sea is"));
+        assertTrue(index.search(QuoteIndex.Field.SAID, "sky green").isEmpty());
+    }
+
+
+    @Test
+    public void testSearchFields() {
+        QuoteIndex index = newIndex();
+        assertEquals(Arrays.asList(sky, grass), index.search(QuoteIndex.Field.SPEAKER, "bob"));
+        assertEquals(Arrays.asList(sea), index.search(QuoteIndex.Field.SPEAKER, "mae"));
+        assertEquals(Arrays.asList(sky, sea), index.search(QuoteIndex.Field.AUTHOR, "john"));
+        assertTrue(index.search(QuoteIndex.Field.AUTHOR, "bob").isEmpty());
+    }
+
+
+    @Test
+    public void testSearchYear() {
+        QuoteIndex index = newIndex();
+        assertEquals(Arrays.asList(sky), index.searchYear(2012));
+        assertEquals(Arrays.asList(sea), index.searchYear(null));
+        assertTrue(index.searchYear(2000).isEmpty());
+    }
+
+
+    @Test
+    public void testAddAndRemove() {
+        QuoteIndex index = newIndex();
+        QuoteContext sky2 = context(4, "Isa", "Bill", "Blue sky again", "2012");
+
+        index.add(sky2);
+        index.add(sky2);
+        assertEquals(4, index.size());
+        assertEquals(Arrays.asList(sky, sky2), index.search(QuoteIndex.Field.SAID, "sky"));
+        assertEquals(Arrays.asList(sky, sky2), index.searchYear(2012));
+
+        assertTrue(index.remove(sky));
+        assertFalse(index.remove(sky));
+        assertEquals(Arrays.asList(sky2), index.search(QuoteIndex.Field.SAID, "sky"));
+        assertEquals(Arrays.asList(sky2), index.searchYear(2012));
+        assertEquals(Arrays.asList(sea), index.search(QuoteIndex.Field.AUTHOR, "john"));
+
+        List<QuoteContext> empty = new ArrayList<>();
+        assertEquals(0, new QuoteIndex(empty).size());
+    }
+}
@@ -0,0 +1,92 @@
+import commands.quotes.Quote;
+import commands.quotes.QuoteContext;
+import commands.quotes.QuoteJournal;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Class of test cases to test replaying the quote journal of a server.
+ * Tests that a record cut off by a crash does not take the next one
+ * appended with it.
+ */
+public class TestQuoteJournal {
+
+    /* Made up server, so no real quotes are touched */
+    private static final long GUILD = 4242424242L;
+
+    private File directory;
+    private boolean createdDirectory;
+
+    private static QuoteContext context(String author, String said) {
+        Quote quote = new Quote();
+        quote.setName("Bob");
+        quote.setQuote(said);
+
+        QuoteContext context = new QuoteContext();
+        context.setAuthor(author);
+        context.addQuoteToContext(quote);
+        return context;
+    }
+
+    @Before
+    public void setUp() {
+        directory = new File(QuoteJournal.journalPath(GUILD)).getParentFile();
+        createdDirectory = directory.mkdirs();
+        deleteFiles();
+    }
+
+    @After
+    public void tearDown() {
+        deleteFiles();
+        if (createdDirectory) {
+            directory.delete();
+        }
+    }
+
+    private void deleteFiles() {
+        File[] files = directory.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            if (file.getName().startsWith(GUILD + "_")) {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testTornLastRecord() throws IOException {
+        QuoteContext kept = context("John", "The sky is blue!");
+        kept.setId(1);
+        JSONObject record = QuoteJournal.contextToJson(kept);
+        record.put("op", "add");
+
+        /* A whole record, then one cut off partway by a crash */
+        String torn = record.toJSONString();
+        String journal = record.toJSONString() + "\n" + torn.substring(0, torn.length() / 2);
+        Files.write(Paths.get(QuoteJournal.journalPath(GUILD)), journal.getBytes(StandardCharsets.UTF_8));
+
+        QuoteContext added = context("Isa", "Grass is green");
+        assertTrue(QuoteJournal.add(GUILD, added));
+
+        List<QuoteContext> loaded = QuoteJournal.load(GUILD);
+        assertEquals(2, loaded.size());
+        assertTrue(loaded.contains(kept));
+        assertTrue(loaded.contains(added));
+
+        assertTrue(QuoteJournal.remove(GUILD, 1));
+        loaded = QuoteJournal.load(GUILD);
+        assertEquals(1, loaded.size());
+        assertEquals(added, loaded.get(0));
+    }
+}